@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.util.Collection;
+import java.util.Locale;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+* Runs the benchmarks with the gc profiler and prints the results per particle:
+* ns/particle-step and allocated bytes/particle-step.
+* Takes the usual JMH command line options, e.g. "KernelBenchmarks.findNeighbors -p N=100000 -p density=4".
+* */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.printf("%-55s %9s %8s %5s %16s %16s %14s%n",
+                "Benchmark", "N", "density", "rc", "ns/particle-step", "B/particle-step", "alloc MB/s");
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark().replaceFirst("^benchmarks\\.", "");
+            int N = Integer.parseInt(result.getParams().getParam("N"));
+            double nsPerStep = result.getPrimaryResult().getScore();
+            double bytesPerStep = secondary(result, "gc.alloc.rate.norm");
+            double allocationRate = secondary(result, "gc.alloc.rate");
+            System.out.printf(Locale.ROOT, "%-55s %9d %8s %5s %16.3f %16.3f %14.3f%n",
+                    benchmark, N, result.getParams().getParam("density"), result.getParams().getParam("rc"),
+                    nsPerStep / N, bytesPerStep / N, allocationRate);
+        }
+    }
+
+    private static double secondary(RunResult result, String label) {
+        Result<?> secondary = result.getSecondaryResults().get(label);
+        return secondary == null ? Double.NaN : secondary.getScore();
+    }
+}
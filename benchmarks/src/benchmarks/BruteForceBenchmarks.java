@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+* The O(N^2) reference method, kept apart from KernelBenchmarks because it does not finish for large N.
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BruteForceBenchmarks {
+    @Param({"100", "1000", "10000"})
+    public int N;
+
+    @Param({"0.5", "4"})
+    public double density;
+
+    @Param({"1"})
+    public double rc;
+
+    private Engine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        engine = new Engine(N, Engine.sideFor(N, density), rc, 1.0, 1, 42L);
+    }
+
+    @Benchmark
+    public void bruteForceMethod() throws Throwable {
+        engine.bruteForceMethod();
+    }
+}
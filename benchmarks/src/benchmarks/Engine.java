@@ -0,0 +1,100 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/*
+* Access to the simulation kernels from the benchmarks.
+* The simulation classes live in the default package, which cannot be imported from a named package
+* (and JMH refuses benchmarks in the default package), so the kernels are looked up once as method handles.
+* */
+final class Engine {
+    private static final MethodHandle CONSTRUCTOR;
+    private static final MethodHandle SET_FUSED_ALIGNMENT;
+    private static final MethodHandle SET_CELL_DIVISIONS;
+    private static final MethodHandle STEP_VICSEK;
+    private static final MethodHandle FIND_NEIGHBORS;
+    private static final MethodHandle BRUTE_FORCE;
+    private static final MethodHandle UPDATE_POSITIONS;
+    private static final MethodHandle UPDATE_POSITIONS_RANDOM_NEIGHBOUR;
+    private static final MethodHandle CALCULATE_POLARIZATION;
+
+    static {
+        try {
+            Class<?> simulation = Class.forName("Simulation");
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(simulation, MethodHandles.lookup());
+            CONSTRUCTOR = lookup.findConstructor(simulation, MethodType.methodType(void.class, int.class, double.class,
+                    int.class, int.class, double.class, double.class, long.class, String.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class, double.class, int.class, int.class,
+                            double.class, double.class, long.class, String.class, int.class));
+            SET_FUSED_ALIGNMENT = erase(lookup.findVirtual(simulation, "setFusedAlignment",
+                    MethodType.methodType(void.class, boolean.class)));
+            SET_CELL_DIVISIONS = erase(lookup.findVirtual(simulation, "setCellDivisions",
+                    MethodType.methodType(void.class, int.class)));
+            STEP_VICSEK = erase(lookup.findVirtual(simulation, "stepVicsek", MethodType.methodType(void.class, int.class)));
+            FIND_NEIGHBORS = erase(lookup.findVirtual(simulation, "findNeighbors", MethodType.methodType(void.class)));
+            BRUTE_FORCE = erase(lookup.findVirtual(simulation, "bruteForceMethod", MethodType.methodType(void.class)));
+            UPDATE_POSITIONS = erase(lookup.findVirtual(simulation, "updatePositions",
+                    MethodType.methodType(void.class, int.class)));
+            UPDATE_POSITIONS_RANDOM_NEIGHBOUR = erase(lookup.findVirtual(simulation, "updatePositionsRandomNeighbour",
+                    MethodType.methodType(void.class, int.class)));
+            CALCULATE_POLARIZATION = erase(lookup.findVirtual(simulation, "calculatePolarization",
+                    MethodType.methodType(double.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle erase(MethodHandle handle) {
+        return handle.asType(handle.type().changeParameterType(0, Object.class));
+    }
+
+    private final Object simulation;
+
+    Engine(int N, int L, double rc, double nu, int threads, long seed) {
+        try {
+            this.simulation = (Object) CONSTRUCTOR.invokeExact(N, 1.0, 1, L, rc, nu, seed, (String) null, threads);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void setFusedAlignment(boolean fusedAlignment) throws Throwable {
+        SET_FUSED_ALIGNMENT.invokeExact(simulation, fusedAlignment);
+    }
+
+    void setCellDivisions(int divisions) throws Throwable {
+        SET_CELL_DIVISIONS.invokeExact(simulation, divisions);
+    }
+
+    // Full Vicsek step: neighbor search and update
+    void stepVicsek(int iteration) throws Throwable {
+        STEP_VICSEK.invokeExact(simulation, iteration);
+    }
+
+    void findNeighbors() throws Throwable {
+        FIND_NEIGHBORS.invokeExact(simulation);
+    }
+
+    void bruteForceMethod() throws Throwable {
+        BRUTE_FORCE.invokeExact(simulation);
+    }
+
+    void updatePositions(int iteration) throws Throwable {
+        UPDATE_POSITIONS.invokeExact(simulation, iteration);
+    }
+
+    void updatePositionsRandomNeighbour(int iteration) throws Throwable {
+        UPDATE_POSITIONS_RANDOM_NEIGHBOUR.invokeExact(simulation, iteration);
+    }
+
+    double calculatePolarization() throws Throwable {
+        return (double) CALCULATE_POLARIZATION.invokeExact(simulation);
+    }
+
+    // Side length giving the requested density for N particles (L is an integer in Simulation)
+    static int sideFor(int N, double density) {
+        return Math.max(1, (int) Math.round(Math.sqrt(N / density)));
+    }
+}
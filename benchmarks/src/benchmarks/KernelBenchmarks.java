@@ -0,0 +1,99 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+* One operation is one call of a kernel over all N particles (one step).
+* L is derived from N and the density.
+* */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KernelBenchmarks {
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    public int N;
+
+    @Param({"0.5", "4"})
+    public double density;
+
+    @Param({"1"})
+    public double rc;
+
+    @Param({"1"})
+    public int threads;
+
+    // Cells of rc / cells, e.g. -p cells=1,2,3 to compare sub-cells
+    @Param({"1"})
+    public int cells;
+
+    // "false" selects the scalar distance kernel, e.g. -p simd=true,false to compare both
+    @Param({"true"})
+    public String simd;
+
+    // Precision of the engine (see Precision), e.g. -p precision=double,mixed,float to compare them
+    @Param({"double"})
+    public String precision;
+
+    private Engine engine;
+    private Engine fusedEngine;
+    private int iteration = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        System.setProperty("simulation.simd", simd);
+        System.setProperty("simulation.precision", precision);
+        engine = new Engine(N, Engine.sideFor(N, density), rc, 1.0, threads, 42L);
+        engine.setCellDivisions(cells);
+        engine.findNeighbors();
+        fusedEngine = new Engine(N, Engine.sideFor(N, density), rc, 1.0, threads, 42L);
+        fusedEngine.setFusedAlignment(true);
+        fusedEngine.setCellDivisions(cells);
+    }
+
+    @Benchmark
+    public void findNeighbors() throws Throwable {
+        engine.findNeighbors();
+    }
+
+    // Neighbor lists are built once in setUp, so only the update itself is measured
+    @Benchmark
+    public void updatePositions() throws Throwable {
+        engine.updatePositions(++iteration);
+    }
+
+    @Benchmark
+    public void updatePositionsRandomNeighbour() throws Throwable {
+        engine.updatePositionsRandomNeighbour(++iteration);
+    }
+
+    // Whole steps, to compare neighbor lists against the fused kernel
+    @Benchmark
+    public void vicsekStep() throws Throwable {
+        engine.stepVicsek(++iteration);
+    }
+
+    @Benchmark
+    public void fusedVicsekStep() throws Throwable {
+        fusedEngine.stepVicsek(++iteration);
+    }
+
+    @Benchmark
+    public double calculatePolarization() throws Throwable {
+        return engine.calculatePolarization();
+    }
+}
@@ -1,6 +1,7 @@
 import argparse
 import math
 import os
+import struct
 import sys
 from typing import List, Tuple, Optional
 
@@ -10,59 +11,75 @@ import matplotlib.pyplot as plt
 from matplotlib.animation import FuncAnimation, PillowWriter, FFMpegWriter
 import re
 
-# ---------- Classes -----------
-class Particle:
-    def __init__(self, x, y, velocity, theta, id):
-        self.x = x
-        self.y = y
-        self.velocity = velocity
-        self.theta = theta
-        self.id = id
-
-    def setVelocity(self, velocity):
-        self.velocity = velocity
-
-    def __repr__(self):
-        return f"Particle(id={self.id}, x={self.x:.3f}, y={self.y:.3f}, theta={self.theta:.3f})"
-
-
 # ---------- Utilities ----------
 
+# Binary trajectory written by BinaryTrajectoryWriter.java (little-endian)
+MAGIC = b"VCSKTRJ1"
+HEADER_SIZE = 128
+HEADER_FORMAT = "<8siidddddqqi"
+
 hdr = re.compile(r"^\s*t\s*:\s*\d+")
 hdr_N = re.compile(r"^\s*N\s*:\s*\d+")
 hdr_L = re.compile(r"^\s*L\s*:\s*\d+")
-hdr_polarization = re.compile(r"^\s*polarization\s*:\s*([\d.,]+)\s*$")
-hdr_density = re.compile(r"^\s*density\s*:\s*([\d.,]+)\s*$")
 
-def leer_frames(filename):
+def es_binario(filename):
+    with open(filename, 'rb') as f:
+        return f.read(len(MAGIC)) == MAGIC
+
+def leer_binario(filename):
+    """Returns (header, frames): frames is a read-only memmap with fields 'step' and 'p' (N x [x, y, theta])."""
+    with open(filename, 'rb') as f:
+        raw = f.read(HEADER_SIZE)
+    magic, version, N, L, rc, nu, dt, velocity, seed, index_offset, rng = struct.unpack_from(HEADER_FORMAT, raw)
+    if version != 1:
+        raise ValueError(f"Unsupported trajectory version {version}")
+    # rng: random generator (0 splitmix, 1 philox)
+    header = {"N": N, "L": L, "rc": rc, "nu": nu, "dt": dt, "velocity": velocity, "seed": seed, "rng": rng}
+
+    frame_dtype = np.dtype([("step", "<i8"), ("p", "<f4", (N, 3))])
+    # Without index (the writer was not closed) every complete frame in the file is used
+    frames_end = index_offset if index_offset > 0 else os.path.getsize(filename)
+    count = (frames_end - HEADER_SIZE) // frame_dtype.itemsize
+    frames = np.memmap(filename, dtype=frame_dtype, mode='r', offset=HEADER_SIZE, shape=(count,))
+    return header, frames
+
+def leer_texto(filename):
+    """Legacy text trajectory, yields one (N x [x, y, theta]) array per frame."""
     with open(filename) as f:
         frame_data = []   # List for actual frame
-        t_actual = None
         for line in f:
             line = line.strip()
-            if not line or hdr_polarization.match(line) or hdr_density.match(line) or hdr_N.match(line) or hdr_L.match(line):
+            if not line or hdr_N.match(line) or hdr_L.match(line):
                 continue
 
-            m = hdr.match(line)
-            if m: # heading
+            if hdr.match(line): # heading
                 if frame_data:
-                    yield (frame_data)
-                    frame_data = [] 
-                t_actual = float(m.group(0).split(':')[1].strip())
+                    yield np.array(frame_data)
+                    frame_data = []
             else:
                 # id, x, y, theta
                 parts = line.split(';')
                 if len(parts) >= 4:
-                    id, sx, sy, stheta = parts
-                    #Lets fix the decimal comma issue in the simulation output
-                    p = Particle(float(sx.replace(',', '.')), float(sy.replace(',', '.')), 0.03, float(stheta.replace(',', '.')), int(id))
-                    frame_data.append(p)
+                    #Older files were written with decimal commas
+                    frame_data.append([float(v.replace(',', '.')) for v in parts[1:4]])
 
         # last frame of the file
         if frame_data:
-            yield (frame_data)
+            yield np.array(frame_data)
+
+def leer_frames(filename):
+    """Yields one (N x [x, y, theta]) array per frame, for binary or text trajectories."""
+    if es_binario(filename):
+        _, frames = leer_binario(filename)
+        for t in range(len(frames)):
+            yield frames[t]["p"]
+    else:
+        yield from leer_texto(filename)
 
 def leer_header(filename):
+    if es_binario(filename):
+        header, _ = leer_binario(filename)
+        return [header["N"], header["L"]]
     N = None
     L = None
     with open(filename) as f:
@@ -97,10 +114,10 @@ def main():
 
     first_frame = next(gen)
 
-    xy = np.array([[p.x, p.y] for p in first_frame])
-    dx = np.array([np.cos(p.theta) for p in first_frame])
-    dy = np.array([np.sin(p.theta) for p in first_frame])
-    angles = np.array([p.theta for p in first_frame])
+    xy = first_frame[:, 0:2]
+    angles = first_frame[:, 2]
+    dx = np.cos(angles)
+    dy = np.sin(angles)
 
     quiv = ax.quiver(
         xy[:, 0], xy[:, 1],
@@ -117,11 +134,11 @@ def main():
     def init_animation():
         return quiv,
 
-    def update_animation(particles):
-        xy = np.array([[p.x, p.y] for p in particles])
-        dx = np.array([np.cos(p.theta) for p in particles])
-        dy = np.array([np.sin(p.theta) for p in particles])
-        angles = np.array([p.theta for p in particles])
+    def update_animation(frame):
+        xy = frame[:, 0:2]
+        angles = frame[:, 2]
+        dx = np.cos(angles)
+        dy = np.sin(angles)
 
         quiv.set_offsets(xy)
         quiv.set_UVC(dx, dy, angles)
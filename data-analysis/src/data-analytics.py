@@ -4,7 +4,8 @@ import matplotlib.pyplot as plt
 
 # Leer datos del archivo
 with open('./polarization-v-time.txt', 'r') as f:
-    data = [float(line.strip()) for line in f if line.strip()]
+    # lines starting with '#' describe each run (seed, generator, parameters)
+    data = [float(line.strip()) for line in f if line.strip() and not line.startswith('#')]
 
 # Crear el array de rango para el eje x
 x_range = list(range(len(data)))
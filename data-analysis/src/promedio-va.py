@@ -7,6 +7,9 @@ def main(time = 0):
         avg_polarization = 0
         avg_counter = 0
         for line in file:
+            # lines starting with '#' describe each run (seed, generator, parameters)
+            if line.startswith('#'):
+                continue
             if counter >= time:
                 print(line.strip())
                 avg_polarization += float(line.strip())
@@ -5,11 +5,11 @@ if (-not (Test-Path $OutDir)) {
     New-Item -ItemType Directory -Path $OutDir
 }
 
-javac -d $OutDir $SrcDir\*.java
+javac --add-modules jdk.incubator.vector -d $OutDir $SrcDir\*.java
 
 if ($LASTEXITCODE -eq 0) {
     Write-Host "Compilation successful. Running program..."
-    java -cp $OutDir FrontEndGui
+    java --add-modules jdk.incubator.vector -cp $OutDir FrontEndGui
 } else {
     Write-Host "Compilation failed."
 }
\ No newline at end of file
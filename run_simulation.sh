@@ -5,11 +5,11 @@ OUT_DIR="simulation/out"
 
 mkdir -p "$OUT_DIR"
 
-javac -d "$OUT_DIR" "$SRC_DIR"/*.java
+javac --add-modules jdk.incubator.vector -d "$OUT_DIR" "$SRC_DIR"/*.java
 
 if [ $? -eq 0 ]; then
     echo "Compilation successful. Running program..."
-    java -cp "$OUT_DIR" FrontEndGui
+    java --add-modules jdk.incubator.vector -cp "$OUT_DIR" FrontEndGui
 else
     echo "Compilation failed."
 fi
\ No newline at end of file
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+* Moves output off the simulation thread.
+* A fixed set of pre-allocated slots circulates between the simulation thread, which fills them,
+* and a dedicated writer thread, which writes them to disk and hands them back.
+* When every slot is waiting to be written acquire() blocks, so a slow disk slows the simulation down
+* instead of growing memory. Any exception of the writer thread is kept and rethrown to the simulation thread as an
+* IOException by the next acquire() or close().
+* */
+public abstract class AsyncOutput<S> implements AutoCloseable {
+    private static final Object STOP = new Object();
+
+    private final BlockingQueue<S> free;
+    private final BlockingQueue<Object> filled;
+    private final String name;
+    private Thread writerThread;
+    private volatile IOException failure;
+
+    protected AsyncOutput(String name, S[] slots) {
+        this.free = new ArrayBlockingQueue<>(slots.length);
+        this.filled = new ArrayBlockingQueue<>(slots.length + 1);
+        for (S slot : slots) {
+            free.add(slot);
+        }
+        this.name = name;
+    }
+
+    // Must be called once the subclass is fully built
+    protected final void startWriter() {
+        writerThread = new Thread(this::writeLoop, name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Writes a slot on the writer thread
+    protected abstract void write(S slot) throws IOException;
+
+    // Flushes and closes the destination on the writer thread, after the last slot
+    protected abstract void closeOutput() throws IOException;
+
+    // Takes an empty slot, waiting for the writer if all of them are in flight
+    protected final S acquire() throws IOException {
+        checkFailure();
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer", e);
+        }
+    }
+
+    protected final void publish(S slot) throws IOException {
+        try {
+            filled.put(slot);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeLoop() {
+        try {
+            while (true) {
+                Object slot = filled.take();
+                if (slot == STOP) {
+                    break;
+                }
+                // After a failure slots are only recycled so the simulation thread never blocks forever
+                if (failure == null) {
+                    try {
+                        write((S) slot);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+                free.add((S) slot);
+            }
+            try {
+                closeOutput();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Keeps the first error, unchecked ones wrapped so callers only deal with IOException
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e instanceof IOException io ? io : new IOException(name + " failed", e);
+        }
+    }
+
+    // Waits until every published slot is written, then rethrows the first write error if any
+    @Override
+    public void close() throws IOException {
+        try {
+            filled.put(STOP);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the writer", e);
+        }
+        checkFailure();
+    }
+}
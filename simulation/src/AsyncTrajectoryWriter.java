@@ -0,0 +1,62 @@
+import java.io.IOException;
+
+/*
+* Writes the frames of another TrajectoryWriter on a background thread.
+* Frames are copied into pre-allocated SnapshotStore slots, only every frameInterval-th step is kept. Slots are float
+* ones for writers that only keep float32 values.
+* The copies are put back in id order (particle i of the simulation has id ids[i]), so writers always see particles by id.
+* */
+public final class AsyncTrajectoryWriter extends AsyncOutput<AsyncTrajectoryWriter.Frame> implements TrajectoryWriter {
+    private static final int SLOTS = 3;
+
+    private final TrajectoryWriter writer;
+    private final int frameInterval;
+    private final int[] ids;
+
+    static final class Frame {
+        private int step;
+        private final ParticleStore particles;
+
+        Frame(int N, boolean single) {
+            this.particles = new SnapshotStore(N, single);
+        }
+    }
+
+    // single: the writer stores float32 values, so the frames are copied in float
+    public AsyncTrajectoryWriter(TrajectoryWriter writer, int N, int frameInterval, int[] ids, boolean single) {
+        super("trajectory-writer", frames(N, single));
+        this.writer = writer;
+        this.frameInterval = Math.max(frameInterval, 1);
+        this.ids = ids;
+        startWriter();
+    }
+
+    private static Frame[] frames(int N, boolean single) {
+        Frame[] frames = new Frame[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            frames[i] = new Frame(N, single);
+        }
+        return frames;
+    }
+
+    @Override
+    public void writeFrame(int step, ParticleStore particles) throws IOException {
+        if (step % frameInterval != 0) {
+            return;
+        }
+        Frame frame = acquire();
+        frame.step = step;
+        frame.particles.scatterFrom(particles, ids);
+        publish(frame);
+    }
+
+    @Override
+    protected void write(Frame frame) throws IOException {
+        writer.writeFrame(frame.step, frame.particles);
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+* Memory-mapped reader of the format written by BinaryTrajectoryWriter.
+* Frames are mapped in chunks of whole frames (a single mapping is limited to 2 GB), so seeking to any frame is O(1).
+* */
+public final class BinaryTrajectoryReader implements AutoCloseable {
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final int N;
+    private final double L;
+    private final double rc;
+    private final double nu;
+    private final double timeStep;
+    private final double velocity;
+    private final long seed;
+    private final int rng;
+    private final int frameSize;
+    private final int frameCount;
+    private final int framesPerChunk;
+    private final MappedByteBuffer[] chunks;
+
+    public BinaryTrajectoryReader(String fileName) throws IOException {
+        this.channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryTrajectoryWriter.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        byte[] magic = new byte[BinaryTrajectoryWriter.MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, BinaryTrajectoryWriter.MAGIC)) {
+            channel.close();
+            throw new IOException(fileName + " is not a binary trajectory");
+        }
+        int version = header.getInt();
+        if (version != BinaryTrajectoryWriter.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported trajectory version " + version);
+        }
+        this.N = header.getInt();
+        this.L = header.getDouble();
+        this.rc = header.getDouble();
+        this.nu = header.getDouble();
+        this.timeStep = header.getDouble();
+        this.velocity = header.getDouble();
+        this.seed = header.getLong();
+        long indexOffset = header.getLong();
+        this.rng = header.getInt();
+
+        this.frameSize = BinaryTrajectoryWriter.frameSize(N);
+        // Without index (the writer was not closed) every complete frame in the file is used
+        long framesEnd = indexOffset > 0 ? indexOffset : channel.size();
+        this.frameCount = (int) ((framesEnd - BinaryTrajectoryWriter.HEADER_SIZE) / frameSize);
+        this.framesPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        this.chunks = new MappedByteBuffer[(frameCount + framesPerChunk - 1) / framesPerChunk];
+    }
+
+    private ByteBuffer frame(int t) throws IOException {
+        if (t < 0 || t >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + t + " out of " + frameCount);
+        }
+        int chunk = t / framesPerChunk;
+        if (chunks[chunk] == null) {
+            long start = BinaryTrajectoryWriter.HEADER_SIZE + (long) chunk * framesPerChunk * frameSize;
+            long frames = Math.min(framesPerChunk, frameCount - (long) chunk * framesPerChunk);
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, start, frames * frameSize);
+        }
+        return chunks[chunk].duplicate()
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .position((t % framesPerChunk) * frameSize);
+    }
+
+    public long getStep(int t) throws IOException {
+        return frame(t).getLong();
+    }
+
+    // Loads frame t into the current buffer of the store
+    public void readFrame(int t, ParticleStore particles) throws IOException {
+        if (particles.size() != N) {
+            throw new IllegalArgumentException("Expected " + N + " particles, got " + particles.size());
+        }
+        ByteBuffer frame = frame(t);
+        frame.getLong();
+        for (int i = 0; i < N; i++) {
+            particles.set(i, frame.getFloat(), frame.getFloat(), frame.getFloat(), velocity);
+        }
+    }
+
+    public int getN() {
+        return N;
+    }
+
+    public double getL() {
+        return L;
+    }
+
+    public double getRc() {
+        return rc;
+    }
+
+    public double getNu() {
+        return nu;
+    }
+
+    public double getTimeStep() {
+        return timeStep;
+    }
+
+    public double getVelocity() {
+        return velocity;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public CounterRng getRng() {
+        return CounterRng.forId(rng);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+* Binary trajectory, all values little-endian:
+*
+* header (HEADER_SIZE bytes)
+*   0  magic "VCSKTRJ1"
+*   8  int32 version
+*  12  int32 N
+*  16  f64 L
+*  24  f64 rc
+*  32  f64 nu
+*  40  f64 dt
+*  48  f64 velocity
+*  56  int64 seed
+*  64  int64 offset of the frame index, 0 while the file is being written
+*  72  int32 random generator (CounterRng.id())
+*
+* frames (8 + 12 * N bytes each)
+*   int64 step, then N times f32 x, f32 y, f32 theta
+*
+* frame index
+*   int64 frame count, then for every frame int64 step and int64 offset
+*
+* Frames have a fixed size, so frame t starts at HEADER_SIZE + t * frameSize even if the index is missing.
+* A run restored from a checkpoint reopens the file, keeps the frames up to the checkpointed step and writes on after them.
+* */
+public final class BinaryTrajectoryWriter implements TrajectoryWriter {
+    static final byte[] MAGIC = "VCSKTRJ1".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+    static final int INDEX_OFFSET_POSITION = 64;
+
+    private final FileChannel channel;
+    private final ByteBuffer frame;
+    private final int N;
+    private long position = HEADER_SIZE;
+    private long[] steps = new long[64];
+    private long[] offsets = new long[64];
+    private int frameCount = 0;
+
+    public BinaryTrajectoryWriter(String fileName, int N, int L, double rc, double nu, double timeStep,
+                                  double velocity, long seed, int rng) throws IOException {
+        this(fileName, N, L, rc, nu, timeStep, velocity, seed, rng, 0);
+    }
+
+    // With resumeStep > 0 an existing trajectory of N particles keeps its frames up to that step (the ones written
+    // after it by an interrupted run are dropped) and the next frames follow them. Otherwise the file is started over
+    public BinaryTrajectoryWriter(String fileName, int N, int L, double rc, double nu, double timeStep,
+                                  double velocity, long seed, int rng, int resumeStep) throws IOException {
+        this.N = N;
+        this.frame = ByteBuffer.allocateDirect(frameSize(N)).order(ByteOrder.LITTLE_ENDIAN);
+        Path path = Path.of(fileName);
+        if (resumeStep > 0 && Files.exists(path) && Files.size(path) >= HEADER_SIZE) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            resume(fileName, resumeStep);
+            return;
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(N);
+        header.putDouble(L);
+        header.putDouble(rc);
+        header.putDouble(nu);
+        header.putDouble(timeStep);
+        header.putDouble(velocity);
+        header.putLong(seed);
+        header.putLong(0);
+        header.putInt(rng);
+        header.clear();
+        writeFully(header, 0);
+    }
+
+    // Drops the index and the frames after resumeStep, frames are in step order
+    private void resume(String fileName, int resumeStep) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        int version = header.getInt();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION || header.getInt() != N) {
+            channel.close();
+            throw new IOException(fileName + " is not a trajectory of " + N + " particles to resume");
+        }
+        long indexOffset = header.getLong(INDEX_OFFSET_POSITION);
+        long framesEnd = indexOffset > 0 ? indexOffset : channel.size();
+        long frames = (framesEnd - HEADER_SIZE) / frameSize(N);
+        ByteBuffer step = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (long t = 0; t < frames; t++) {
+            step.clear();
+            readFully(step, position);
+            long frameStep = step.getLong();
+            if (frameStep > resumeStep) {
+                break;
+            }
+            if (frameCount == steps.length) {
+                steps = Arrays.copyOf(steps, steps.length * 2);
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            steps[frameCount] = frameStep;
+            offsets[frameCount] = position;
+            frameCount++;
+            position += frameSize(N);
+        }
+        channel.truncate(position);
+        // the index is written again on close, until then readers take every complete frame
+        ByteBuffer indexOffsetField = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        indexOffsetField.putLong(0).flip();
+        writeFully(indexOffsetField, INDEX_OFFSET_POSITION);
+    }
+
+    private void readFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Trajectory truncated");
+            }
+            at += read;
+        }
+        buffer.flip();
+    }
+
+    static int frameSize(int N) {
+        return Long.BYTES + 3 * Float.BYTES * N;
+    }
+
+    @Override
+    public void writeFrame(int step, ParticleStore particles) throws IOException {
+        if (particles.size() != N) {
+            throw new IllegalArgumentException("Expected " + N + " particles, got " + particles.size());
+        }
+        frame.clear();
+        frame.putLong(step);
+        for (int i = 0; i < N; i++) {
+            frame.putFloat((float) particles.getX(i));
+            frame.putFloat((float) particles.getY(i));
+            frame.putFloat((float) particles.getTheta(i));
+        }
+        frame.flip();
+
+        if (frameCount == steps.length) {
+            steps = Arrays.copyOf(steps, steps.length * 2);
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        steps[frameCount] = step;
+        offsets[frameCount] = position;
+        frameCount++;
+
+        writeFully(frame, position);
+        position += frameSize(N);
+    }
+
+    private void writeFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            at += channel.write(buffer, at);
+        }
+    }
+
+    // Writes the frame index and records its offset in the header
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            ByteBuffer index = ByteBuffer.allocate(Long.BYTES * (1 + 2 * frameCount)).order(ByteOrder.LITTLE_ENDIAN);
+            index.putLong(frameCount);
+            for (int t = 0; t < frameCount; t++) {
+                index.putLong(steps[t]);
+                index.putLong(offsets[t]);
+            }
+            index.flip();
+            writeFully(index, position);
+
+            ByteBuffer indexOffset = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            indexOffset.putLong(position).flip();
+            writeFully(indexOffset, INDEX_OFFSET_POSITION);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+
+/*
+* Online blocking analysis of a correlated series (Flyvbjerg and Petersen): level k keeps the running mean and variance
+* of the averages of consecutive blocks of 2^k samples, built on the fly with O(log n) memory.
+* The variance of the block averages over the block count estimates the error of the mean; it grows with the block size
+* until blocks are longer than the correlation time and then stays flat, so the largest estimate among the levels with
+* enough blocks is taken as the error. The ratio against the naive error gives the integrated autocorrelation time.
+* */
+public final class BlockAverage {
+    // Levels with fewer blocks give too noisy a variance to be trusted
+    public static final int MIN_BLOCKS = 32;
+    private static final int MAX_LEVELS = 48;
+    // Size of the state saved by writeTo()
+    static final int BYTES = MAX_LEVELS * (RunningStats.BYTES + Double.BYTES + 1);
+
+    private final RunningStats[] levels = new RunningStats[MAX_LEVELS];
+    // First half of the block being built at each level
+    private final double[] pending = new double[MAX_LEVELS];
+    private final boolean[] hasPending = new boolean[MAX_LEVELS];
+
+    public BlockAverage() {
+        for (int k = 0; k < MAX_LEVELS; k++) {
+            levels[k] = new RunningStats();
+        }
+    }
+
+    public void add(double value) {
+        for (int k = 0; k < MAX_LEVELS; k++) {
+            levels[k].add(value);
+            if (!hasPending[k]) {
+                pending[k] = value;
+                hasPending[k] = true;
+                return;
+            }
+            value = (pending[k] + value) / 2;
+            hasPending[k] = false;
+        }
+    }
+
+    // Saves every level, e.g. into a checkpoint
+    void writeTo(ByteBuffer buffer) {
+        for (int k = 0; k < MAX_LEVELS; k++) {
+            levels[k].writeTo(buffer);
+            buffer.putDouble(pending[k]);
+            buffer.put((byte) (hasPending[k] ? 1 : 0));
+        }
+    }
+
+    // Restores the levels saved by writeTo()
+    void readFrom(ByteBuffer buffer) {
+        for (int k = 0; k < MAX_LEVELS; k++) {
+            levels[k].readFrom(buffer);
+            pending[k] = buffer.getDouble();
+            hasPending[k] = buffer.get() != 0;
+        }
+    }
+
+    public long getCount() {
+        return levels[0].getCount();
+    }
+
+    public double getMean() {
+        return levels[0].getMean();
+    }
+
+    public double getVariance() {
+        return levels[0].getVariance();
+    }
+
+    // Error of the mean accounting for correlations, infinite until there are MIN_BLOCKS samples
+    public double getStandardError() {
+        double error2 = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < MAX_LEVELS && levels[k].getCount() >= MIN_BLOCKS; k++) {
+            double levelError2 = levels[k].getVariance() / levels[k].getCount();
+            error2 = k == 0 ? levelError2 : Math.max(error2, levelError2);
+        }
+        return Math.sqrt(error2);
+    }
+
+    // Integrated autocorrelation time in samples, with the convention error^2 = 2 tau variance / n (tau = 1/2 without correlations)
+    public double getAutocorrelationTime() {
+        double naiveError2 = getVariance() / getCount();
+        if (getCount() < MIN_BLOCKS || naiveError2 == 0) {
+            return 0.5;
+        }
+        double error = getStandardError();
+        return 0.5 * error * error / naiveError2;
+    }
+}
@@ -0,0 +1,901 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+* Cell index method backed by flat int arrays.
+* Particles are binned with a counting sort: the particles of cell c are order[cellStart[c]] .. order[cellStart[c + 1] - 1],
+* and their positions are copied in the same order so scanning a cell reads contiguous memory.
+* Between steps update() keeps the binning instead: only the particles that changed cell are moved, the rest of the
+* order is block copied, so the slots end up exactly as a new counting sort would put them.
+* Cells can be divided: with cells of rc / k each cell is tested against the cells up to k away (those that can hold
+* a point within rc of it), which covers less area outside rc than the 3x3 cells of side rc.
+* With a single Precision the binned positions are floats and distances are tested in float, the fused alignment sums
+* are added in double (MIXED) or float (FLOAT) and returned as doubles.
+* */
+public final class CellIndex {
+    // update() falls back to a full sort when more than N / REBIN_FRACTION particles changed cell
+    private static final int REBIN_FRACTION = 8;
+
+    private final int N;
+    private final int L;
+    private final int M;
+    private final double cellSize;
+    private final double rc;
+    // Cells per rc, the stencil reaches this many cells away
+    private final int divisions;
+    private final Precision precision;
+
+    private int[] cellStart;
+    private final int[] cellOf;
+    private int[] order;
+    // Binned positions, in double or (single precisions) in float, the other pair is null
+    private final double[] sortedX;
+    private final double[] sortedY;
+    private final float[] sortedXf;
+    private final float[] sortedYf;
+
+    // Neighbor cells of every cell (including itself) without repetitions, merged into runs of consecutive cells
+    // so each run is one contiguous range of slots: cell c visits the runs stencilStart[c] .. stencilStart[c + 1] - 1,
+    // run r covers the cells stencilRuns[2 * r] .. stencilRuns[2 * r + 1] - 1
+    private final int[] stencilStart;
+    private final int[] stencilRuns;
+
+    // Half stencil: every unordered pair of neighbor cells appears once, stored as runs like the full one
+    // (the cell itself not included). With M >= 2k + 1 these are the cells (x, y + 1 .. y + k) and
+    // (x + 1 .. x + k, y - k .. y + k), so a column only reaches particles of its own column and the k next ones
+    private final int[] halfStencilStart;
+    private final int[] halfStencilRuns;
+
+    // Longest run of the full stencil in cells, bounds the candidates of a run together with the fullest cell
+    private final int maxRunCells;
+
+    private final DistanceKernel kernel;
+
+    // Per block buffers for the slots accepted by the kernel, sized in sort()
+    private final int[][] accepted;
+
+    // Per slot buffers of the fused alignment kernel, allocated on first use
+    private double[] slotCos;
+    private double[] slotSin;
+    private double[] slotCosSum;
+    private double[] slotSinSum;
+    private int[] slotCount;
+    // Same in float, for Precision.FLOAT
+    private float[] slotCosF;
+    private float[] slotSinF;
+    private float[] slotCosSumF;
+    private float[] slotSinSumF;
+
+    // Per slot buffers of the fused voter kernel, and per column buffers for the slots accepted by the kernel
+    // (used by the voter scan and by the alignment scan when it links clusters)
+    private int[] slotId;
+    private double[] slotKey;
+    private int[] slotChoice;
+    private int[][] columnAccepted;
+    private int acceptedCapacity;
+
+    // Per column histograms of the pair correlation scan, allocated on first use
+    private long[][] columnPairs;
+    private double[][] columnAlignment;
+
+    // Incremental binning: whether cellOf and the slots still belong to the current particle ids, the moves found by
+    // every block (particle, new cell pairs) and the buffers the next order is merged into, all kept between steps
+    private boolean binned = false;
+    private final int[][] blockMoves;
+    private final int[] blockMoveCount;
+    private long[] moves = new long[0];
+    private BitSet dirtyCells;
+    private int[] orderBuffer;
+    private int[] cellStartBuffer;
+    private int lastMoves;
+
+    private interface ColumnScan {
+        void scan(int cx);
+    }
+
+    public CellIndex(int N, int L, int M, double rc) {
+        this(N, L, M, rc, 1);
+    }
+
+    public CellIndex(int N, int L, int M, double rc, int divisions) {
+        this(N, L, M, rc, divisions, Precision.DOUBLE);
+    }
+
+    // M must be at most cellsPerSide(L, rc, divisions)
+    public CellIndex(int N, int L, int M, double rc, int divisions, Precision precision) {
+        this.N = N;
+        this.L = L;
+        this.M = Math.max(M, 1);
+        this.cellSize = (double) L / this.M;
+        this.rc = rc;
+        this.divisions = Math.max(divisions, 1);
+        this.precision = precision;
+
+        this.cellStart = new int[this.M * this.M + 1];
+        this.cellOf = new int[N];
+        this.order = new int[N];
+        this.sortedX = precision.isSingle() ? null : new double[N];
+        this.sortedY = precision.isSingle() ? null : new double[N];
+        this.sortedXf = precision.isSingle() ? new float[N] : null;
+        this.sortedYf = precision.isSingle() ? new float[N] : null;
+
+        int cells = this.M * this.M;
+        int[] stencilCellStart = new int[cells + 1];
+        int[] stencil = buildStencil(stencilCellStart);
+        this.stencilStart = new int[cells + 1];
+        this.stencilRuns = toRuns(stencilCellStart, stencil, stencilStart);
+        int[] halfStencilCellStart = new int[cells + 1];
+        int[] halfStencil = buildHalfStencil(stencilCellStart, stencil, halfStencilCellStart);
+        this.halfStencilStart = new int[cells + 1];
+        this.halfStencilRuns = toRuns(halfStencilCellStart, halfStencil, halfStencilStart);
+
+        int longest = 1;
+        for (int r = 0; r < stencilRuns.length; r += 2) {
+            longest = Math.max(longest, stencilRuns[r + 1] - stencilRuns[r]);
+        }
+        this.maxRunCells = longest;
+
+        this.kernel = DistanceKernel.select();
+        this.accepted = new int[Math.max(ParallelRange.blocks(N), 1)][0];
+        this.blockMoves = new int[Math.max(ParallelRange.blocks(N), 1)][0];
+        this.blockMoveCount = new int[blockMoves.length];
+    }
+
+    // Most cells per side with cells of at least rc / divisions
+    public static int cellsPerSide(int L, double rc, int divisions) {
+        return Math.max((int) Math.floor(L * divisions / rc), 1);
+    }
+
+    // Whether two cells dx, dy cells apart can hold points within rc of each other
+    private boolean inReach(int dx, int dy) {
+        double gapX = Math.max(Math.abs(dx) - 1, 0) * cellSize;
+        double gapY = Math.max(Math.abs(dy) - 1, 0) * cellSize;
+        return gapX * gapX + gapY * gapY <= rc * rc;
+    }
+
+    // With M < 2k + 1 offsets wrap around to the same cell, so repeated cells are dropped
+    private int[] buildStencil(int[] stencilStart) {
+        int cells = M * M;
+        int k = divisions;
+        int[] aux = new int[cells * (2 * k + 1) * (2 * k + 1)];
+        int size = 0;
+        for (int cx = 0; cx < M; cx++) {
+            for (int cy = 0; cy < M; cy++) {
+                int cell = cx * M + cy;
+                stencilStart[cell] = size;
+                for (int dx = -k; dx <= k; dx++) {
+                    for (int dy = -k; dy <= k; dy++) {
+                        if (!inReach(dx, dy)) {
+                            continue;
+                        }
+                        int neighborCell = Math.floorMod(cx + dx, M) * M + Math.floorMod(cy + dy, M);
+                        boolean repeated = false;
+                        for (int s = stencilStart[cell]; s < size; s++) {
+                            if (aux[s] == neighborCell) {
+                                repeated = true;
+                                break;
+                            }
+                        }
+                        if (!repeated) {
+                            aux[size++] = neighborCell;
+                        }
+                    }
+                }
+            }
+        }
+        stencilStart[cells] = size;
+        return Arrays.copyOf(aux, size);
+    }
+
+    private int[] buildHalfStencil(int[] stencilStart, int[] stencil, int[] halfStencilStart) {
+        int cells = M * M;
+        int k = divisions;
+        // never more cells than the full stencil
+        int[] aux = new int[stencil.length];
+        int size = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            halfStencilStart[cell] = size;
+            int cx = cell / M;
+            int cy = cell % M;
+            if (isPhased()) {
+                for (int dy = 1; dy <= k; dy++) {
+                    if (inReach(0, dy)) {
+                        aux[size++] = cx * M + (cy + dy) % M;
+                    }
+                }
+                for (int dx = 1; dx <= k; dx++) {
+                    for (int dy = -k; dy <= k; dy++) {
+                        if (inReach(dx, dy)) {
+                            aux[size++] = ((cx + dx) % M) * M + Math.floorMod(cy + dy, M);
+                        }
+                    }
+                }
+            } else {
+                // Small grids wrap onto themselves, take each neighbor cell with a higher index instead
+                for (int s = stencilStart[cell]; s < stencilStart[cell + 1]; s++) {
+                    if (stencil[s] > cell) {
+                        aux[size++] = stencil[s];
+                    }
+                }
+            }
+        }
+        halfStencilStart[cells] = size;
+        return Arrays.copyOf(aux, size);
+    }
+
+    // Sorts the cells of every list and merges consecutive ones into [first, last + 1) runs,
+    // the runs of cell c end up at runStart[c] .. runStart[c + 1] - 1
+    private static int[] toRuns(int[] listStart, int[] list, int[] runStart) {
+        int cells = listStart.length - 1;
+        int[] aux = new int[list.length * 2];
+        int runs = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            runStart[cell] = runs;
+            int[] sorted = Arrays.copyOfRange(list, listStart[cell], listStart[cell + 1]);
+            Arrays.sort(sorted);
+            for (int k = 0; k < sorted.length; k++) {
+                if (k > 0 && sorted[k] == sorted[k - 1] + 1) {
+                    aux[2 * runs - 1]++;
+                } else {
+                    aux[2 * runs] = sorted[k];
+                    aux[2 * runs + 1] = sorted[k] + 1;
+                    runs++;
+                }
+            }
+        }
+        runStart[cells] = runs;
+        return Arrays.copyOf(aux, runs * 2);
+    }
+
+    // Columns can be scanned concurrently in phases only when no offset of the stencil wraps onto another
+    private boolean isPhased() {
+        return M >= 2 * divisions + 1;
+    }
+
+    public int getM() {
+        return M;
+    }
+
+    public int getDivisions() {
+        return divisions;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public DistanceKernel getKernel() {
+        return kernel;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public int cellOf(double x, double y) {
+        int cx = Math.min((int) (x / cellSize), M - 1);
+        int cy = Math.min((int) (y / cellSize), M - 1);
+        return cx * M + cy;
+    }
+
+    public void build(ParticleStore particles) {
+        assignCells(particles, 0, N);
+        sort(particles);
+    }
+
+    // Computes the cell of particles [from, to), independent ranges can run concurrently
+    public void assignCells(ParticleStore particles, int from, int to) {
+        for (int i = from; i < to; i++) {
+            cellOf[i] = cellOf(particles.getX(i), particles.getY(i));
+        }
+    }
+
+    // Counting sort of the particles by the cells computed in assignCells()
+    public void sort(ParticleStore particles) {
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < N; i++) {
+            cellStart[cellOf[i] + 1]++;
+        }
+        int fullest = 0;
+        for (int c = 0; c < M * M; c++) {
+            fullest = Math.max(fullest, cellStart[c + 1]);
+            cellStart[c + 1] += cellStart[c];
+        }
+        reserveAccepted(fullest);
+        // cellStart[c] is used as insertion cursor and restored afterwards
+        for (int i = 0; i < N; i++) {
+            int slot = cellStart[cellOf[i]]++;
+            order[slot] = i;
+            setPosition(slot, particles.getX(i), particles.getY(i));
+        }
+        for (int c = M * M; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+        binned = true;
+        lastMoves = N;
+    }
+
+    private void reserveAccepted(int fullest) {
+        int capacity = Math.min(N, fullest * maxRunCells);
+        acceptedCapacity = capacity;
+        for (int b = 0; b < accepted.length; b++) {
+            if (accepted[b].length < capacity) {
+                accepted[b] = new int[Math.min(N, capacity * 2)];
+            }
+        }
+    }
+
+    // The binning no longer matches the particle ids (they were permuted or replaced), the next update() sorts again
+    public void invalidate() {
+        binned = false;
+    }
+
+    // Particles that changed cell in the last update(), N after a full sort
+    public int getLastMoves() {
+        return lastMoves;
+    }
+
+    // Bins the current positions. Only the particles that left their cell since the last binning are moved:
+    // the cells they leave or enter are merged again, every other run of cells is copied as one block.
+    // When more than 1 / REBIN_FRACTION of the particles moved, a full sort is cheaper
+    public void update(ParticleStore particles, ParallelRange range) {
+        if (!binned) {
+            range.forEach(N, (from, to) -> assignCells(particles, from, to));
+            sort(particles);
+            return;
+        }
+        range.forEach(N, (from, to) -> findMoves(particles, from, to));
+        int moveCount = 0;
+        for (int count : blockMoveCount) {
+            moveCount += count;
+        }
+        if (moveCount > N / REBIN_FRACTION) {
+            for (int b = 0; b < blockMoves.length; b++) {
+                for (int k = 0; k < blockMoveCount[b]; k++) {
+                    cellOf[blockMoves[b][2 * k]] = blockMoves[b][2 * k + 1];
+                }
+            }
+            sort(particles);
+            lastMoves = moveCount;
+            return;
+        }
+
+        if (dirtyCells == null) {
+            dirtyCells = new BitSet(M * M);
+            orderBuffer = new int[N];
+            cellStartBuffer = new int[M * M + 1];
+        }
+        if (moves.length < moveCount) {
+            moves = new long[Math.max(moveCount, moves.length * 2)];
+        }
+        // Sorted by new cell, then by particle, the order the particles enter their cells in
+        int m = 0;
+        for (int b = 0; b < blockMoves.length; b++) {
+            for (int k = 0; k < blockMoveCount[b]; k++) {
+                int i = blockMoves[b][2 * k];
+                int cell = blockMoves[b][2 * k + 1];
+                dirtyCells.set(cellOf[i]);
+                dirtyCells.set(cell);
+                cellOf[i] = cell;
+                moves[m++] = (long) cell << 32 | i;
+            }
+        }
+        Arrays.sort(moves, 0, moveCount);
+        rebin(moveCount);
+        dirtyCells.clear();
+        lastMoves = moveCount;
+        range.forEach(N, (from, to) -> gatherPositions(particles, from, to));
+    }
+
+    // Records the particles of [from, to) whose cell changed with their new cell, cellOf is left as it is
+    private void findMoves(ParticleStore particles, int from, int to) {
+        int b = from >> ParallelRange.BLOCK_SHIFT;
+        int[] found = blockMoves[b];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int cell = cellOf(particles.getX(i), particles.getY(i));
+            if (cell != cellOf[i]) {
+                if (2 * count + 2 > found.length) {
+                    found = Arrays.copyOf(found, Math.max(16, found.length * 2));
+                    blockMoves[b] = found;
+                }
+                found[2 * count] = i;
+                found[2 * count + 1] = cell;
+                count++;
+            }
+        }
+        blockMoveCount[b] = count;
+    }
+
+    // Builds the next order from the current one: a cell keeps the particles still in it and takes the sorted
+    // moves into it, both in particle order, so every cell stays sorted by particle like after sort()
+    private void rebin(int moveCount) {
+        int cells = M * M;
+        int[] next = orderBuffer;
+        int[] nextStart = cellStartBuffer;
+        int written = 0;
+        int m = 0;
+        int fullest = 0;
+        for (int c = 0; c < cells; ) {
+            if (!dirtyCells.get(c)) {
+                int end = dirtyCells.nextSetBit(c);
+                if (end < 0) {
+                    end = cells;
+                }
+                int shift = written - cellStart[c];
+                for (int d = c; d < end; d++) {
+                    nextStart[d] = cellStart[d] + shift;
+                    fullest = Math.max(fullest, cellStart[d + 1] - cellStart[d]);
+                }
+                System.arraycopy(order, cellStart[c], next, written, cellStart[end] - cellStart[c]);
+                written += cellStart[end] - cellStart[c];
+                c = end;
+                continue;
+            }
+            nextStart[c] = written;
+            int slot = cellStart[c];
+            int end = cellStart[c + 1];
+            while (true) {
+                // particles that left c already have their new cell in cellOf
+                while (slot < end && cellOf[order[slot]] != c) {
+                    slot++;
+                }
+                boolean entering = m < moveCount && (int) (moves[m] >>> 32) == c;
+                if (slot < end && (!entering || order[slot] < (int) moves[m])) {
+                    next[written++] = order[slot++];
+                } else if (entering) {
+                    next[written++] = (int) moves[m++];
+                } else {
+                    break;
+                }
+            }
+            fullest = Math.max(fullest, written - nextStart[c]);
+            c++;
+        }
+        nextStart[cells] = written;
+
+        orderBuffer = order;
+        cellStartBuffer = cellStart;
+        order = next;
+        cellStart = nextStart;
+        reserveAccepted(fullest);
+    }
+
+    // Copies the positions of slots [from, to) in slot order, independent ranges can run concurrently
+    private void gatherPositions(ParticleStore particles, int from, int to) {
+        for (int slot = from; slot < to; slot++) {
+            int i = order[slot];
+            setPosition(slot, particles.getX(i), particles.getY(i));
+        }
+    }
+
+    private void setPosition(int slot, double x, double y) {
+        if (sortedXf != null) {
+            sortedXf[slot] = (float) x;
+            sortedYf[slot] = (float) y;
+        } else {
+            sortedX[slot] = x;
+            sortedY[slot] = y;
+        }
+    }
+
+    // The kernel on the binned positions in their precision: the slots in [from, to) within rc of (x, y)
+    private int collect(double x, double y, int from, int to, double rc2, int[] out) {
+        if (sortedXf != null) {
+            return kernel.collect((float) x, (float) y, sortedXf, sortedYf, from, to, L, (float) rc2, out);
+        }
+        return kernel.collect(x, y, sortedX, sortedY, from, to, L, rc2, out);
+    }
+
+    // Same around the particle of slot a
+    private int collect(int a, int from, int to, double rc2, int[] out) {
+        if (sortedXf != null) {
+            return kernel.collect(sortedXf[a], sortedYf[a], sortedXf, sortedYf, from, to, L, (float) rc2, out);
+        }
+        return kernel.collect(sortedX[a], sortedY[a], sortedX, sortedY, from, to, L, rc2, out);
+    }
+
+    // Adds slot a and the slots in [from, to) within rc of it to each other's alignment sums
+    private void accumulate(int a, int from, int to, double rc2) {
+        switch (precision) {
+            case DOUBLE -> kernel.accumulate(a, sortedX, sortedY, slotCos, slotSin, slotCosSum, slotSinSum, slotCount,
+                    from, to, L, rc2);
+            case MIXED -> kernel.accumulate(a, sortedXf, sortedYf, slotCos, slotSin, slotCosSum, slotSinSum, slotCount,
+                    from, to, L, (float) rc2);
+            case FLOAT -> kernel.accumulate(a, sortedXf, sortedYf, slotCosF, slotSinF, slotCosSumF, slotSinSumF,
+                    slotCount, from, to, L, (float) rc2);
+        }
+    }
+
+    // Squared distance between the particles of slots a and b, in the precision of the binned positions
+    private double distance2(int a, int b) {
+        if (sortedXf != null) {
+            return DistanceKernel.distance2(sortedXf[a] - sortedXf[b], sortedYf[a] - sortedYf[b], L);
+        }
+        return DistanceKernel.distance2(sortedX[a] - sortedX[b], sortedY[a] - sortedY[b], L);
+    }
+
+    // Distance tests findNeighbors() makes for the current binning, without each particle against itself
+    public long candidatePairs() {
+        long tests = 0;
+        for (int cell = 0; cell < M * M; cell++) {
+            long reached = 0;
+            for (int r = stencilStart[cell]; r < stencilStart[cell + 1]; r++) {
+                reached += cellStart[stencilRuns[2 * r + 1]] - cellStart[stencilRuns[2 * r]];
+            }
+            tests += (cellStart[cell + 1] - cellStart[cell]) * reached;
+        }
+        return tests - N;
+    }
+
+    // Distance tests accumulateAlignment() makes for the current binning, each unordered pair once
+    public long halfCandidatePairs() {
+        long tests = 0;
+        for (int cell = 0; cell < M * M; cell++) {
+            long count = cellStart[cell + 1] - cellStart[cell];
+            long reached = 0;
+            for (int r = halfStencilStart[cell]; r < halfStencilStart[cell + 1]; r++) {
+                reached += cellStart[halfStencilRuns[2 * r + 1]] - cellStart[halfStencilRuns[2 * r]];
+            }
+            tests += count * (count - 1) / 2 + count * reached;
+        }
+        return tests;
+    }
+
+    // Fused neighbor search and Vicsek alignment: for every particle adds up cos and sin of itself and of every neighbor
+    // within rc, and counts its neighbors, without storing any neighbor list.
+    // Each pair is found once and added to both particles. Columns of cells are scanned in phases such that
+    // concurrent columns never touch the same particles, and every particle always receives its contributions
+    // in the same order, so the sums do not depend on the number of threads.
+    // build() must have been called for the current positions
+    public void accumulateAlignment(ParticleStore particles, double[] cosSum, double[] sinSum, int[] counts,
+                                    ParallelRange range) {
+        accumulateAlignment(particles, cosSum, sinSum, counts, null, range);
+    }
+
+    // Same, and when links is not null also joins in it every pair within rc. The scan then collects the slots
+    // it has just accumulated a second time, the sums are the same as without links
+    public void accumulateAlignment(ParticleStore particles, double[] cosSum, double[] sinSum, int[] counts,
+                                    UnionFind links, ParallelRange range) {
+        if (precision == Precision.FLOAT) {
+            accumulateAlignmentFloat(particles, cosSum, sinSum, counts, links, range);
+            return;
+        }
+        if (slotCos == null) {
+            slotCos = new double[N];
+            slotSin = new double[N];
+        }
+        if (slotCosSum == null) {
+            slotCosSum = new double[N];
+            slotSinSum = new double[N];
+        }
+        if (slotCount == null) {
+            slotCount = new int[N];
+        }
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                slotCos[slot] = particles.getCos(i);
+                slotSin[slot] = particles.getSin(i);
+                // the particle itself is part of its neighborhood
+                slotCosSum[slot] = slotCos[slot];
+                slotSinSum[slot] = slotSin[slot];
+                slotCount[slot] = 0;
+            }
+        });
+
+        if (links != null && columnAccepted == null) {
+            columnAccepted = new int[M][0];
+        }
+        scanColumns(range, cx -> scanColumn(cx, links));
+
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                cosSum[i] = slotCosSum[slot];
+                sinSum[i] = slotSinSum[slot];
+                counts[i] = slotCount[slot];
+            }
+        });
+    }
+
+    // Same with float slots and sums (Precision.FLOAT)
+    private void accumulateAlignmentFloat(ParticleStore particles, double[] cosSum, double[] sinSum, int[] counts,
+                                          UnionFind links, ParallelRange range) {
+        if (slotCosF == null) {
+            slotCosF = new float[N];
+            slotSinF = new float[N];
+            slotCosSumF = new float[N];
+            slotSinSumF = new float[N];
+        }
+        if (slotCount == null) {
+            slotCount = new int[N];
+        }
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                slotCosF[slot] = (float) particles.getCos(i);
+                slotSinF[slot] = (float) particles.getSin(i);
+                slotCosSumF[slot] = slotCosF[slot];
+                slotSinSumF[slot] = slotSinF[slot];
+                slotCount[slot] = 0;
+            }
+        });
+
+        if (links != null && columnAccepted == null) {
+            columnAccepted = new int[M][0];
+        }
+        scanColumns(range, cx -> scanColumn(cx, links));
+
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                cosSum[i] = slotCosSumF[slot];
+                sinSum[i] = slotSinSumF[slot];
+                counts[i] = slotCount[slot];
+            }
+        });
+    }
+
+    // Runs scan on every column of cells, a scan may write to the particles of its column and of the k next ones
+    private void scanColumns(ParallelRange range, ColumnScan scan) {
+        if (isPhased()) {
+            // column x writes to columns x .. x + k: phase p scans the columns x = p mod (k + 1), then the last
+            // M mod (k + 1) columns (which wrap onto the first ones) go one at a time
+            int phases = divisions + 1;
+            int phasedColumns = M - M % phases;
+            for (int p = 0; p < phases; p++) {
+                int phase = p;
+                range.forEach(phasedColumns / phases, 1, (from, to) -> {
+                    for (int k = from; k < to; k++) {
+                        scan.scan(phases * k + phase);
+                    }
+                });
+            }
+            for (int cx = phasedColumns; cx < M; cx++) {
+                scan.scan(cx);
+            }
+        } else {
+            for (int cx = 0; cx < M; cx++) {
+                scan.scan(cx);
+            }
+        }
+    }
+
+    private void scanColumn(int cx, UnionFind links) {
+        double rc2 = rc * rc;
+        int[] slots = links == null ? null : columnSlots(cx);
+        for (int cy = 0; cy < M; cy++) {
+            int cell = cx * M + cy;
+            int start = cellStart[cell];
+            int end = cellStart[cell + 1];
+
+            for (int a = start; a < end; a++) {
+                // pairs inside the cell
+                accumulate(a, a + 1, end, rc2);
+                if (links != null) {
+                    link(a, collect(a, a + 1, end, rc2, slots), slots, links);
+                }
+                // pairs with the cells of the half stencil
+                for (int r = halfStencilStart[cell]; r < halfStencilStart[cell + 1]; r++) {
+                    int from = cellStart[halfStencilRuns[2 * r]];
+                    int to = cellStart[halfStencilRuns[2 * r + 1]];
+                    accumulate(a, from, to, rc2);
+                    if (links != null) {
+                        link(a, collect(a, from, to, rc2, slots), slots, links);
+                    }
+                }
+            }
+        }
+    }
+
+    // Joins the particle of slot a with the particles of the found slots
+    private void link(int a, int found, int[] slots, UnionFind links) {
+        for (int k = 0; k < found; k++) {
+            links.union(order[a], order[slots[k]]);
+        }
+    }
+
+    // Buffer of column cx for the slots accepted by the kernel, sized for the current binning
+    private int[] columnSlots(int cx) {
+        if (columnAccepted[cx].length < acceptedCapacity) {
+            columnAccepted[cx] = new int[Math.min(N, acceptedCapacity * 2)];
+        }
+        return columnAccepted[cx];
+    }
+
+    // Fused neighbor search and voter rule: picks for every particle one of its neighbors within rc uniformly
+    // at random, without storing any neighbor list. Each neighbor j of particle i gets the key
+    // rng.uniform(seed, step, ids[i], ids[j]) and the one with the smallest key is kept (single item reservoir sampling
+    // with random keys), so the choice does not depend on the order pairs are found in: it is the same
+    // for any number of threads and any order of the particles in memory.
+    // chosen[i] is the index of the neighbor, or i itself without neighbors, and counts[i] the number of neighbors.
+    // build() must have been called for the current positions
+    public void chooseRandomNeighbors(int[] ids, CounterRng rng, long seed, int step, int[] chosen, int[] counts,
+                                      ParallelRange range) {
+        chooseRandomNeighbors(ids, rng, seed, step, chosen, counts, null, range);
+    }
+
+    // Same, and when links is not null also joins in it every pair within rc
+    public void chooseRandomNeighbors(int[] ids, CounterRng rng, long seed, int step, int[] chosen, int[] counts,
+                                      UnionFind links, ParallelRange range) {
+        if (slotId == null) {
+            slotId = new int[N];
+            slotKey = new double[N];
+            slotChoice = new int[N];
+        }
+        if (columnAccepted == null) {
+            columnAccepted = new int[M][0];
+        }
+        if (slotCount == null) {
+            slotCount = new int[N];
+        }
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                slotId[slot] = ids[order[slot]];
+                slotKey[slot] = Double.POSITIVE_INFINITY;
+                slotChoice[slot] = slot;
+                slotCount[slot] = 0;
+            }
+        });
+
+        scanColumns(range, cx -> sampleColumn(cx, rng, seed, step, links));
+
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                chosen[i] = order[slotChoice[slot]];
+                counts[i] = slotCount[slot];
+            }
+        });
+    }
+
+    private void sampleColumn(int cx, CounterRng rng, long seed, int step, UnionFind links) {
+        double rc2 = rc * rc;
+        int[] slots = columnSlots(cx);
+        for (int cy = 0; cy < M; cy++) {
+            int cell = cx * M + cy;
+            int start = cellStart[cell];
+            int end = cellStart[cell + 1];
+
+            for (int a = start; a < end; a++) {
+                // pairs inside the cell, then with the cells of the half stencil
+                int found = collect(a, a + 1, end, rc2, slots);
+                offerPairs(a, found, slots, rng, seed, step);
+                if (links != null) {
+                    link(a, found, slots, links);
+                }
+                for (int r = halfStencilStart[cell]; r < halfStencilStart[cell + 1]; r++) {
+                    found = collect(a, cellStart[halfStencilRuns[2 * r]], cellStart[halfStencilRuns[2 * r + 1]], rc2,
+                            slots);
+                    offerPairs(a, found, slots, rng, seed, step);
+                    if (links != null) {
+                        link(a, found, slots, links);
+                    }
+                }
+            }
+        }
+    }
+
+    // Offers each of the found slots to slot a as a neighbor and a to each of them
+    private void offerPairs(int a, int found, int[] slots, CounterRng rng, long seed, int step) {
+        for (int k = 0; k < found; k++) {
+            int b = slots[k];
+            offer(a, b, rng.uniform(seed, step, slotId[a], slotId[b]));
+            offer(b, a, rng.uniform(seed, step, slotId[b], slotId[a]));
+        }
+    }
+
+    // Keeps candidate if its key is the smallest so far, ties (equal 53 bit keys) go to the smaller id
+    private void offer(int slot, int candidate, double key) {
+        slotCount[slot]++;
+        if (key < slotKey[slot] || key == slotKey[slot] && slotId[candidate] < slotId[slotChoice[slot]]) {
+            slotKey[slot] = key;
+            slotChoice[slot] = candidate;
+        }
+    }
+
+    // Pair correlations up to rc: for every unordered pair within rc at distance r adds one to pairs[b] and
+    // cos(theta_i - theta_j) to alignment[b], with b = (int) (r / binWidth) (pairs past the last bin are left out).
+    // Columns add to histograms of their own, summed in column order, so the result does not depend on the number
+    // of threads. build() must have been called for the current positions
+    public void accumulatePairs(ParticleStore particles, double binWidth, long[] pairs, double[] alignment,
+                                ParallelRange range) {
+        int bins = pairs.length;
+        if (slotCos == null) {
+            slotCos = new double[N];
+            slotSin = new double[N];
+        }
+        if (columnAccepted == null) {
+            columnAccepted = new int[M][0];
+        }
+        if (columnPairs == null || columnPairs[0].length != bins) {
+            columnPairs = new long[M][bins];
+            columnAlignment = new double[M][bins];
+        }
+        range.forEach(N, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                int i = order[slot];
+                slotCos[slot] = particles.getCos(i);
+                slotSin[slot] = particles.getSin(i);
+            }
+        });
+
+        scanColumns(range, cx -> correlateColumn(cx, binWidth));
+
+        for (int cx = 0; cx < M; cx++) {
+            for (int b = 0; b < bins; b++) {
+                pairs[b] += columnPairs[cx][b];
+                alignment[b] += columnAlignment[cx][b];
+            }
+            Arrays.fill(columnPairs[cx], 0);
+            Arrays.fill(columnAlignment[cx], 0.0);
+        }
+    }
+
+    private void correlateColumn(int cx, double binWidth) {
+        double rc2 = rc * rc;
+        int[] slots = columnSlots(cx);
+        for (int cy = 0; cy < M; cy++) {
+            int cell = cx * M + cy;
+            int start = cellStart[cell];
+            int end = cellStart[cell + 1];
+
+            for (int a = start; a < end; a++) {
+                // pairs inside the cell, then with the cells of the half stencil
+                correlate(a, collect(a, a + 1, end, rc2, slots), slots, binWidth, columnPairs[cx],
+                        columnAlignment[cx]);
+                for (int r = halfStencilStart[cell]; r < halfStencilStart[cell + 1]; r++) {
+                    int found = collect(a, cellStart[halfStencilRuns[2 * r]], cellStart[halfStencilRuns[2 * r + 1]],
+                            rc2, slots);
+                    correlate(a, found, slots, binWidth, columnPairs[cx], columnAlignment[cx]);
+                }
+            }
+        }
+    }
+
+    private void correlate(int a, int found, int[] slots, double binWidth, long[] pairs, double[] alignment) {
+        double cos = slotCos[a];
+        double sin = slotSin[a];
+        double binsPerUnit = 1.0 / binWidth;
+        for (int k = 0; k < found; k++) {
+            int b = slots[k];
+            double r = Math.sqrt(distance2(a, b));
+            int bin = (int) (r * binsPerUnit);
+            if (bin < pairs.length) {
+                pairs[bin]++;
+                alignment[bin] += cos * slotCos[b] + sin * slotSin[b];
+            }
+        }
+    }
+
+    // Fills the neighbor lists of every particle, build() must have been called for the current positions
+    public void findNeighbors(ParticleStore particles, NeighborList neighbors) {
+        findNeighbors(particles, neighbors, 0, N);
+    }
+
+    // Fills the neighbor lists of particles [from, to), each particle only writes its own list
+    // so ranges matching the NeighborList blocks can run concurrently
+    public void findNeighbors(ParticleStore particles, NeighborList neighbors, int from, int to) {
+        double rc2 = rc * rc;
+        int[] slots = accepted[from >> ParallelRange.BLOCK_SHIFT];
+        for (int i = from; i < to; i++) {
+            neighbors.start(i);
+            double x = particles.getX(i);
+            double y = particles.getY(i);
+            int cell = cellOf[i];
+
+            for (int r = stencilStart[cell]; r < stencilStart[cell + 1]; r++) {
+                int found = collect(x, y, cellStart[stencilRuns[2 * r]], cellStart[stencilRuns[2 * r + 1]], rc2, slots);
+                for (int k = 0; k < found; k++) {
+                    int j = order[slots[k]];
+                    if (j != i) {
+                        neighbors.add(i, j);
+                    }
+                }
+            }
+            neighbors.sort(i);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+* Reads a checkpoint written by CheckpointWriter, see there for the layout.
+* */
+public final class CheckpointReader {
+    private final int N;
+    private final int L;
+    private final int maxIterations;
+    private final int iteration;
+    private final int frameInterval;
+    private final double rc;
+    private final double nu;
+    private final double timeStep;
+    private final long seed;
+    private final double verletSkin;
+    private final double targetError;
+    private final boolean fusedAlignment;
+    private final int checkpointInterval;
+    private final int reorderInterval;
+    private final int rng;
+    private final int cellDivisions;
+    private final Precision precision;
+    private final int[] ids;
+    private final ParticleStore particles;
+    private final SteadyStateMonitor monitor;
+
+    public CheckpointReader(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(CheckpointWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+
+            byte[] magic = new byte[CheckpointWriter.MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, CheckpointWriter.MAGIC)) {
+                throw new IOException(fileName + " is not a checkpoint");
+            }
+            int version = header.getInt();
+            if (version != CheckpointWriter.VERSION) {
+                throw new IOException("Unsupported checkpoint version " + version);
+            }
+            this.N = header.getInt();
+            this.L = header.getInt();
+            this.maxIterations = header.getInt();
+            this.iteration = header.getInt();
+            this.frameInterval = header.getInt();
+            this.rc = header.getDouble();
+            this.nu = header.getDouble();
+            this.timeStep = header.getDouble();
+            this.seed = header.getLong();
+            this.verletSkin = header.getDouble();
+            this.targetError = header.getDouble();
+            this.fusedAlignment = header.getInt() != 0;
+            this.checkpointInterval = header.getInt();
+            this.reorderInterval = header.getInt();
+            this.rng = header.getInt();
+            this.cellDivisions = header.getInt();
+            this.precision = Precision.forId(header.getInt());
+
+            // The body is read sequentially through a small buffer, column by column
+            ByteBuffer body = ByteBuffer.allocateDirect(CheckpointWriter.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            body.flip();
+            long position = CheckpointWriter.HEADER_SIZE;
+            double[][] columns = new double[6][N];
+            for (double[] column : columns) {
+                for (int i = 0; i < N; i++) {
+                    if (body.remaining() < Double.BYTES) {
+                        position = refill(channel, body, position);
+                    }
+                    column[i] = body.getDouble();
+                }
+            }
+            this.particles = ParticleStore.allocate(N);
+            for (int i = 0; i < N; i++) {
+                particles.set(i, columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i], columns[5][i]);
+            }
+            this.ids = new int[N];
+            for (int i = 0; i < N; i++) {
+                if (body.remaining() < Integer.BYTES) {
+                    position = refill(channel, body, position);
+                }
+                ids[i] = body.getInt();
+            }
+            if (body.remaining() < Integer.BYTES + SteadyStateMonitor.BYTES) {
+                refill(channel, body, position);
+            }
+            if (body.remaining() < Integer.BYTES) {
+                throw new IOException("Checkpoint truncated");
+            }
+            SteadyStateMonitor monitor = null;
+            if (body.getInt() != 0) {
+                if (body.remaining() < SteadyStateMonitor.BYTES) {
+                    throw new IOException("Checkpoint truncated");
+                }
+                monitor = new SteadyStateMonitor(targetError);
+                monitor.readFrom(body);
+            }
+            this.monitor = monitor;
+        }
+    }
+
+    // Keeps the unread bytes and reads more after them, returns the file position after what was read
+    private static long refill(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.compact();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) {
+                throw new IOException("Checkpoint truncated");
+            }
+            at += read;
+        }
+        buffer.flip();
+    }
+
+    public int getN() {
+        return N;
+    }
+
+    public int getL() {
+        return L;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    public double getRc() {
+        return rc;
+    }
+
+    public double getNu() {
+        return nu;
+    }
+
+    public double getTimeStep() {
+        return timeStep;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public double getVerletSkin() {
+        return verletSkin;
+    }
+
+    public double getTargetError() {
+        return targetError;
+    }
+
+    public boolean isFusedAlignment() {
+        return fusedAlignment;
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public int getReorderInterval() {
+        return reorderInterval;
+    }
+
+    public CounterRng getRng() {
+        return CounterRng.forId(rng);
+    }
+
+    public int getCellDivisions() {
+        return cellDivisions;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    // Steady state detection of the checkpointed polarization run, null for other runs
+    public SteadyStateMonitor getMonitor() {
+        return monitor;
+    }
+
+    // Original id of every particle of getParticles()
+    public int[] getIds() {
+        return ids;
+    }
+
+    // Particles in the order they were in memory
+    public ParticleStore getParticles() {
+        return particles;
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntToDoubleFunction;
+
+/*
+* Periodic checkpoints of the whole simulation state, written on a background thread.
+* The random numbers are a pure function of (seed, step, particle) (see CounterRng), so the generator, the seed
+* and the step counter are its complete state. All values little-endian:
+*
+* header (HEADER_SIZE bytes)
+*   0  magic "VCSKCKP1"
+*   8  int32 version
+*  12  int32 N
+*  16  int32 L
+*  20  int32 maxIterations
+*  24  int32 iteration (steps done)
+*  28  int32 frameInterval
+*  32  f64 rc
+*  40  f64 nu
+*  48  f64 dt
+*  56  int64 seed
+*  64  f64 verletSkin
+*  72  f64 targetError
+*  80  int32 fusedAlignment (0 or 1)
+*  84  int32 checkpoint interval
+*  88  int32 reorder interval
+*  92  int32 generator (CounterRng.id())
+*  96  int32 cell divisions (see Simulation.setCellDivisions)
+* 100  int32 precision (Precision.id())
+*
+* particles in memory order, 6 arrays of N f64: x, y, theta, cos, sin, velocity (float values in single precision)
+* ids, N int32: original id of each particle (see Simulation.setReorderInterval)
+* int32 1 when a polarization run was checkpointed, followed by the state of its SteadyStateMonitor
+*   (SteadyStateMonitor.BYTES), 0 otherwise
+*
+* Each checkpoint is written to a temporary file, forced to disk and renamed over the previous one,
+* so the file on disk is always a complete checkpoint even if the process is killed while writing.
+* The copies waiting to be written have the precision and backing of the simulation's store (see
+* ParticleStore.allocateLike), so a memory-mapped simulation does not need its state twice on the heap.
+* */
+public final class CheckpointWriter extends AsyncOutput<CheckpointWriter.State> {
+    static final byte[] MAGIC = "VCSKCKP1".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 128;
+    // The simulation only waits for the writer if it produces checkpoints faster than they are written
+    private static final int SLOTS = 2;
+    // The body goes through a buffer of this size, so any N fits
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path target;
+    private final Path temporary;
+    private final ByteBuffer header;
+    private final ByteBuffer body;
+    private final State[] states;
+
+    static final class State {
+        private int iteration;
+        private final ParticleStore particles;
+        private final int[] ids;
+        private final ByteBuffer monitor = ByteBuffer.allocate(SteadyStateMonitor.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private boolean hasMonitor;
+
+        State(ParticleStore particles) {
+            this.particles = particles.allocateLike();
+            this.ids = new int[particles.size()];
+        }
+    }
+
+    // particles is the store the checkpoints will be taken of, its copies are allocated like it
+    public CheckpointWriter(String fileName, ParticleStore particles, int L, int maxIterations, int frameInterval,
+                            double rc, double nu, double timeStep, long seed, double verletSkin, double targetError,
+                            boolean fusedAlignment, int checkpointInterval, int reorderInterval, int rng,
+                            int cellDivisions, int precision) {
+        this(states(particles), fileName, particles.size(), L, maxIterations, frameInterval, rc, nu, timeStep, seed,
+                verletSkin, targetError, fusedAlignment, checkpointInterval, reorderInterval, rng, cellDivisions,
+                precision);
+    }
+
+    private CheckpointWriter(State[] states, String fileName, int N, int L, int maxIterations, int frameInterval,
+                             double rc, double nu, double timeStep, long seed, double verletSkin, double targetError,
+                             boolean fusedAlignment, int checkpointInterval, int reorderInterval, int rng,
+                             int cellDivisions, int precision) {
+        super("checkpoint-writer", states);
+        this.states = states;
+        this.target = Path.of(fileName);
+        this.temporary = Path.of(fileName + ".tmp");
+
+        this.header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(N);
+        header.putInt(L);
+        header.putInt(maxIterations);
+        header.putInt(0);
+        header.putInt(frameInterval);
+        header.putDouble(rc);
+        header.putDouble(nu);
+        header.putDouble(timeStep);
+        header.putLong(seed);
+        header.putDouble(verletSkin);
+        header.putDouble(targetError);
+        header.putInt(fusedAlignment ? 1 : 0);
+        header.putInt(checkpointInterval);
+        header.putInt(reorderInterval);
+        header.putInt(rng);
+        header.putInt(cellDivisions);
+        header.putInt(precision);
+        this.body = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        startWriter();
+    }
+
+    private static State[] states(ParticleStore particles) {
+        State[] states = new State[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            states[i] = new State(particles);
+        }
+        return states;
+    }
+
+    // Copies the state after the given number of steps, the copy is written in the background.
+    // monitor is the one of the polarization run in progress, null for other runs
+    public void save(int iteration, ParticleStore particles, int[] ids, SteadyStateMonitor monitor) throws IOException {
+        State state = acquire();
+        state.iteration = iteration;
+        state.particles.copyFrom(particles);
+        System.arraycopy(ids, 0, state.ids, 0, ids.length);
+        state.hasMonitor = monitor != null;
+        state.monitor.clear();
+        if (monitor != null) {
+            monitor.writeTo(state.monitor);
+        }
+        state.monitor.flip();
+        publish(state);
+    }
+
+    @Override
+    protected void write(State state) throws IOException {
+        ParticleStore particles = state.particles;
+        int N = particles.size();
+        header.putInt(24, state.iteration);
+        header.position(HEADER_SIZE);
+        IntToDoubleFunction[] columns = {particles::getX, particles::getY, particles::getTheta,
+                particles::getCos, particles::getSin, particles::getVelocity};
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = drain(channel, header, 0);
+            body.clear();
+            for (IntToDoubleFunction column : columns) {
+                for (int i = 0; i < N; i++) {
+                    if (body.remaining() < Double.BYTES) {
+                        position = drain(channel, body, position);
+                    }
+                    body.putDouble(column.applyAsDouble(i));
+                }
+            }
+            for (int i = 0; i < N; i++) {
+                if (body.remaining() < Integer.BYTES) {
+                    position = drain(channel, body, position);
+                }
+                body.putInt(state.ids[i]);
+            }
+            if (body.remaining() < Integer.BYTES + SteadyStateMonitor.BYTES) {
+                position = drain(channel, body, position);
+            }
+            body.putInt(state.hasMonitor ? 1 : 0);
+            body.put(state.monitor);
+            drain(channel, body, position);
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes what was put in the buffer and clears it, returns the position after it
+    private static long drain(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+        return position;
+    }
+
+    // Every checkpoint is a complete file, only the copies of a memory-mapped store have files of their own to release
+    @Override
+    protected void closeOutput() throws IOException {
+        for (State state : states) {
+            if (state.particles instanceof MappedParticleStore mapped) {
+                mapped.close();
+            }
+        }
+    }
+}
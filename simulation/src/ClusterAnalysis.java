@@ -0,0 +1,179 @@
+import java.io.IOException;
+
+/*
+* Clusters of the rc neighbor graph (particles connected through chains of neighbors), every interval steps.
+* The links are added to a UnionFind by the neighbor search of the step itself, so no extra pass over the pairs
+* is made. Every run appends to prefix.clusters.csv a row per analyzed state (number of clusters, largest cluster
+* and its fraction of N, its polarization, mean size and size-weighted mean polarization) and to
+* prefix.cluster_sizes.csv the size histogram of that state, one row per size present with the number of clusters
+* of that size and their mean polarization. The polarization of a cluster is |sum of its headings| / size.
+* A state is the one the step starts from, after "step" steps, so state 0 is the initial one.
+* */
+public final class ClusterAnalysis {
+    private static final String SUMMARY_COLUMNS = "step,clusters,largest,largest_fraction,largest_polarization,"
+            + "mean_size,weighted_polarization";
+    private static final String SUMMARY_FORMAT = "%.0f,%.0f,%.0f,%.6f,%.6f,%.4f,%.6f";
+    private static final String SIZES_COLUMNS = "step,size,clusters,mean_polarization";
+    private static final String SIZES_FORMAT = "%.0f,%.0f,%.0f,%.6f";
+
+    private final String prefix;
+    private final int interval;
+    private SeriesWriter summary;
+    private SeriesWriter sizes;
+    private final double[] summaryRow = new double[7];
+    private final double[] sizesRow = new double[4];
+
+    // Sized on the first run, root of every particle and sums by root, then clusters and polarization sums by size
+    private UnionFind links;
+    private int[] roots;
+    private int[] clusterSize;
+    private double[] clusterCos;
+    private double[] clusterSin;
+    private int[] sizeCount;
+    private double[] sizePolarization;
+
+    // A null prefix turns the analysis off
+    public ClusterAnalysis(String prefix, int interval) {
+        this.prefix = prefix;
+        this.interval = Math.max(interval, 1);
+    }
+
+    public boolean isEnabled() {
+        return prefix != null;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    // Starts a run of N particles described by header
+    public void begin(String header, int N) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (links == null || links.size() != N) {
+            links = new UnionFind(N);
+            roots = new int[N];
+            clusterSize = new int[N];
+            clusterCos = new double[N];
+            clusterSin = new double[N];
+            sizeCount = new int[N + 1];
+            sizePolarization = new double[N + 1];
+        }
+        try {
+            summary = new SeriesWriter(prefix + ".clusters.csv", summaryRow.length, SUMMARY_FORMAT, header,
+                    SUMMARY_COLUMNS);
+            sizes = new SeriesWriter(prefix + ".cluster_sizes.csv", sizesRow.length, SIZES_FORMAT, header,
+                    SIZES_COLUMNS);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The union-find the neighbor search of the step from state step has to fill, emptied for it,
+    // or null when that state is not analyzed
+    public UnionFind links(int step, ParallelRange range) {
+        if (!isEnabled() || step % interval != 0) {
+            return null;
+        }
+        range.forEach(links.size(), links::reset);
+        return links;
+    }
+
+    // Links every particle with its neighbors, for the searches that fill neighbor lists
+    public void link(UnionFind links, NeighborList neighbors, ParallelRange range) {
+        range.forEach(links.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int k = 0; k < neighbors.count(i); k++) {
+                    int j = neighbors.get(i, k);
+                    // both directions are in the lists, one is enough
+                    if (j > i) {
+                        links.union(i, j);
+                    }
+                }
+            }
+        });
+    }
+
+    // Labels the clusters found by links() for state step with the headings of particles (still that state)
+    // and writes their statistics
+    public void record(int step, ParticleStore particles, ParallelRange range) {
+        int N = links.size();
+        range.forEach(N, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                roots[i] = links.find(i);
+            }
+        });
+        for (int i = 0; i < N; i++) {
+            int root = roots[i];
+            clusterSize[root]++;
+            clusterCos[root] += particles.getCos(i);
+            clusterSin[root] += particles.getSin(i);
+        }
+
+        int clusters = 0;
+        int largest = 0;
+        double largestPolarization = 0.0;
+        double weightedPolarization = 0.0;
+        for (int root = 0; root < N; root++) {
+            int size = clusterSize[root];
+            if (size == 0) {
+                continue;
+            }
+            double polarization = Math.sqrt(clusterCos[root] * clusterCos[root] + clusterSin[root] * clusterSin[root])
+                    / size;
+            clusters++;
+            // ties go to the cluster of the smallest index, the first one found here
+            if (size > largest) {
+                largest = size;
+                largestPolarization = polarization;
+            }
+            weightedPolarization += size * polarization;
+            sizeCount[size]++;
+            sizePolarization[size] += polarization;
+            clusterSize[root] = 0;
+            clusterCos[root] = 0.0;
+            clusterSin[root] = 0.0;
+        }
+
+        try {
+            summaryRow[0] = step;
+            summaryRow[1] = clusters;
+            summaryRow[2] = largest;
+            summaryRow[3] = (double) largest / N;
+            summaryRow[4] = largestPolarization;
+            summaryRow[5] = (double) N / clusters;
+            summaryRow[6] = weightedPolarization / N;
+            summary.append(summaryRow);
+            for (int size = 1; size <= largest; size++) {
+                if (sizeCount[size] == 0) {
+                    continue;
+                }
+                sizesRow[0] = step;
+                sizesRow[1] = size;
+                sizesRow[2] = sizeCount[size];
+                sizesRow[3] = sizePolarization[size] / sizeCount[size];
+                sizes.append(sizesRow);
+                sizeCount[size] = 0;
+                sizePolarization[size] = 0.0;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void finish() {
+        try {
+            if (summary != null) {
+                summary.close();
+            }
+            if (sizes != null) {
+                sizes.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        summary = null;
+        sizes = null;
+    }
+}
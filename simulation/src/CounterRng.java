@@ -0,0 +1,46 @@
+/*
+* Counter-based random numbers: every value is a pure function of (seed, step, particle), with no state shared between
+* threads, workers or runs. Any particle gets its number of any step directly, so a seeded run is the same on 1 thread
+* and on 64, split over processes or restarted from a checkpoint.
+* Steps 1 and up are the noise of each step, steps 0 and below are reserved for the initial state.
+* */
+public interface CounterRng {
+    int INITIAL_X = 0;
+    int INITIAL_Y = -1;
+    int INITIAL_THETA = -2;
+
+    // Uniform number in [0, 1)
+    double uniform(long seed, int step, int particle);
+
+    // Uniform number in [0, 1) of particle for the pair it forms with other on step, independent of the one above
+    // and of the one of other for the same pair
+    double uniform(long seed, int step, int particle, int other);
+
+    // Numbers of the particles ids[from] .. ids[to - 1] on step, into out[from] .. out[to - 1]
+    default void fill(long seed, int step, int[] ids, int from, int to, double[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = uniform(seed, step, ids[i]);
+        }
+    }
+
+    // Recorded in the output headers
+    int id();
+
+    String name();
+
+    static CounterRng forId(int id) {
+        return switch (id) {
+            case SplitMixRng.ID -> new SplitMixRng();
+            case PhiloxRng.ID -> new PhiloxRng();
+            default -> throw new IllegalArgumentException("Unknown generator " + id);
+        };
+    }
+
+    static CounterRng forName(String name) {
+        return switch (name.toLowerCase()) {
+            case SplitMixRng.NAME -> new SplitMixRng();
+            case PhiloxRng.NAME -> new PhiloxRng();
+            default -> throw new IllegalArgumentException("Unknown generator " + name);
+        };
+    }
+}
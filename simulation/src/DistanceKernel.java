@@ -0,0 +1,61 @@
+/*
+* Inner loop of the cell scans: tests one particle against a contiguous range of slots of the cell index.
+* Distances use the periodic minimum image in branch-free form, min(|dx|, L - |dx|), valid because
+* coordinates lie in [0, L). Every implementation does the same floating point operations per pair,
+* so they accept exactly the same pairs and produce bit-identical sums.
+* The float versions serve Precision.MIXED and FLOAT: the same operations on float positions, with double or float sums.
+* */
+public interface DistanceKernel {
+    // Writes to out the slots b in [from, to) within rc of (x, y), returns how many there are
+    int collect(double x, double y, double[] xs, double[] ys, int from, int to, double L, double rc2, int[] out);
+
+    // For every slot b in [from, to) within rc of slot a, adds the unit vector of each one to the sums of the other
+    // and counts the pair for both
+    void accumulate(int a, double[] xs, double[] ys, double[] cos, double[] sin,
+                    double[] cosSum, double[] sinSum, int[] counts, int from, int to, double L, double rc2);
+
+    // Float positions (Precision.MIXED and FLOAT)
+    int collect(float x, float y, float[] xs, float[] ys, int from, int to, float L, float rc2, int[] out);
+
+    // Float positions with double sums (Precision.MIXED)
+    void accumulate(int a, float[] xs, float[] ys, double[] cos, double[] sin,
+                    double[] cosSum, double[] sinSum, int[] counts, int from, int to, float L, float rc2);
+
+    // Float positions and sums (Precision.FLOAT)
+    void accumulate(int a, float[] xs, float[] ys, float[] cos, float[] sin,
+                    float[] cosSum, float[] sinSum, int[] counts, int from, int to, float L, float rc2);
+
+    String name();
+
+    // Squared periodic distance for coordinate differences dx, dy in (-L, L)
+    static double distance2(double dx, double dy, double L) {
+        double adx = Math.abs(dx);
+        double ady = Math.abs(dy);
+        adx = Math.min(adx, L - adx);
+        ady = Math.min(ady, L - ady);
+        return adx * adx + ady * ady;
+    }
+
+    static float distance2(float dx, float dy, float L) {
+        float adx = Math.abs(dx);
+        float ady = Math.abs(dy);
+        adx = Math.min(adx, L - adx);
+        ady = Math.min(ady, L - ady);
+        return adx * adx + ady * ady;
+    }
+
+    // The Vector API kernel when the jdk.incubator.vector module is present (java --add-modules jdk.incubator.vector)
+    // and not disabled with -Dsimulation.simd=false, the scalar kernel otherwise
+    static DistanceKernel select() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("simulation.simd", "true"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so the class is never linked when the module is missing
+                return (DistanceKernel) Class.forName("VectorDistanceKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar kernel
+            }
+        }
+        return new ScalarDistanceKernel();
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+* Domain-decomposed run: the box is split into vertical strips, one per DomainWorker, and the workers only exchange
+* the particles near their common sides. The workers can be threads of this JVM (in-process links) or separate
+* processes, on this machine or others, connected by TCP or Unix domain sockets. The coordinator only adds up the
+* velocity sums of the workers into the polarization of every step, and collects the final state.
+* Particles end bit-identical to a Simulation with neighbor lists and the same seed (no fused alignment,
+* no reordering). The polarization matches up to rounding, its sum is split by strip instead of by block of ids.
+* */
+public final class DistributedSimulation {
+    private final int N;
+    private final double timeStep;
+    private final int maxIterations;
+    private final int L;
+    private final double rc;
+    private final double nu;
+    private final long seed;
+    private final int workers;
+    private boolean randomNeighbour = false;
+    private CounterRng rng = new SplitMixRng();
+
+    public DistributedSimulation(int N, double timeStep, int maxIterations, int L, double radius, double nu, long seed,
+                                 int workers) {
+        this.N = N;
+        this.timeStep = timeStep;
+        this.maxIterations = maxIterations;
+        this.L = L;
+        this.rc = radius;
+        this.nu = nu;
+        this.seed = seed;
+        this.workers = workers;
+        settings().validate();
+    }
+
+    // Voter-like rule of Simulation.runSimulationForPolarizationRandomNeighbor() instead of the Vicsek one
+    public void setRandomNeighbour(boolean randomNeighbour){
+        this.randomNeighbour = randomNeighbour;
+    }
+
+    public void setRng(CounterRng rng){
+        this.rng = rng;
+    }
+
+    private DomainWorker.Settings settings() {
+        return new DomainWorker.Settings(workers, N, timeStep, maxIterations, L, rc, nu, seed, rng.id(), randomNeighbour);
+    }
+
+    // Runs every worker on its own thread, appends the polarization of every step to polarizationFile
+    // and returns the final state
+    public ParticleStore runInProcess(String polarizationFile) throws IOException {
+        DomainWorker.Settings settings = settings();
+        // ring[k] links the right side of strip k with the left side of strip k + 1
+        InProcessLink[][] ring = new InProcessLink[workers][];
+        InProcessLink[][] up = new InProcessLink[workers][];
+        for (int k = 0; k < workers; k++) {
+            ring[k] = InProcessLink.pair();
+            up[k] = InProcessLink.pair();
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        MessageLink[] links = new MessageLink[workers];
+        for (int k = 0; k < workers; k++) {
+            int rank = k;
+            InProcessLink left = ring[(k + workers - 1) % workers][1];
+            InProcessLink right = ring[k][0];
+            InProcessLink coordinator = up[k][1];
+            links[k] = up[k][0];
+            Thread thread = new Thread(() -> {
+                try {
+                    new DomainWorker(rank, settings, left, right, coordinator).run();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    // the ends waiting for this worker fail instead of blocking forever
+                    left.close();
+                    right.close();
+                    coordinator.close();
+                }
+            }, "domain-worker-" + k);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            return coordinate(links, polarizationFile);
+        } finally {
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // Listens on address ("host:port" or "unix:path") for the workers, each one started with
+    // java DomainWorker <address> on any machine that can reach it. With spawnWorkers they are started here
+    public ParticleStore runOverSockets(String polarizationFile, String address, boolean spawnWorkers) throws IOException {
+        ServerSocketChannel server = SocketLink.listen(address);
+        List<Process> processes = new ArrayList<>();
+        SocketLink[] links = new SocketLink[workers];
+        try {
+            String workerAddress = SocketLink.isUnix(address) ? address : "localhost:" + SocketLink.port(server);
+            System.out.println("Waiting for " + workers + " workers on " + workerAddress);
+            if (spawnWorkers) {
+                String java = ProcessHandle.current().info().command().orElse("java");
+                for (int k = 0; k < workers; k++) {
+                    processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                            "DomainWorker", workerAddress).inheritIO().start());
+                }
+            }
+
+            // ranks are given in connection order
+            DomainWorker.Settings settings = settings();
+            for (int k = 0; k < workers; k++) {
+                links[k] = SocketLink.accept(server);
+                ByteBuffer assignment = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+                assignment.putInt(k);
+                settings.write(assignment);
+                links[k].send(assignment.flip());
+            }
+            // then every worker connects to the one on its right
+            String[] peers = new String[workers];
+            for (int k = 0; k < workers; k++) {
+                peers[k] = DomainWorker.decode(links[k].receive());
+                if (peers[k].startsWith(":")) {
+                    peers[k] = links[k].remoteHost() + peers[k];
+                }
+            }
+            for (int k = 0; k < workers; k++) {
+                links[k].send(DomainWorker.encode(peers[(k + 1) % workers]));
+            }
+            return coordinate(links, polarizationFile);
+        } finally {
+            for (SocketLink link : links) {
+                if (link != null) {
+                    link.close();
+                }
+            }
+            SocketLink.close(server);
+            for (Process process : processes) {
+                try {
+                    process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private ParticleStore coordinate(MessageLink[] links, String polarizationFile) throws IOException {
+        String header = String.format(Locale.ROOT, "seed=%d rng=%s N=%d L=%d rc=%s nu=%s dt=%s workers=%d",
+                seed, rng.name(), N, L, rc, nu, timeStep, workers);
+        try (SeriesWriter writer = new SeriesWriter(polarizationFile, 1, "%.5f", header)) {
+            for (int i = 1; i <= maxIterations; i++) {
+                double velocityX = 0.0;
+                double velocityY = 0.0;
+                for (MessageLink link : links) {
+                    ByteBuffer statistics = link.receive();
+                    int iteration = statistics.getInt();
+                    if (iteration != i) {
+                        throw new IOException("Worker sent step " + iteration + " while expecting " + i);
+                    }
+                    velocityX += statistics.getDouble();
+                    velocityY += statistics.getDouble();
+                }
+                double magnitude = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
+                writer.append(magnitude / (N * Simulation.VELOCITY));
+            }
+        }
+
+        ParticleStore particles = ParticleStore.allocate(N);
+        int received = 0;
+        for (MessageLink link : links) {
+            ByteBuffer state = link.receive();
+            int count = state.getInt();
+            for (int k = 0; k < count; k++) {
+                particles.set(state.getInt(), state.getDouble(), state.getDouble(), state.getDouble(),
+                        state.getDouble(), state.getDouble(), state.getDouble());
+            }
+            received += count;
+        }
+        if (received != N) {
+            throw new IOException("Workers returned " + received + " particles instead of " + N);
+        }
+        return particles;
+    }
+
+    // java DistributedSimulation N timeStep maxIterations L rc nu seed workers polarizationFile [address [spawn]]
+    // Without an address the workers run in this JVM
+    public static void main(String[] args) throws IOException {
+        if (args.length < 9) {
+            System.err.println("Usage: java DistributedSimulation N timeStep maxIterations L rc nu seed workers "
+                    + "polarizationFile [host:port | unix:path [spawn]]");
+            System.exit(1);
+        }
+        DistributedSimulation simulation = new DistributedSimulation(Integer.parseInt(args[0]),
+                Double.parseDouble(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                Double.parseDouble(args[4]), Double.parseDouble(args[5]), Long.parseLong(args[6]),
+                Integer.parseInt(args[7]));
+        if (args.length == 9) {
+            simulation.runInProcess(args[8]);
+        } else {
+            simulation.runOverSockets(args[8], args[9], args.length > 10 && args[10].equals("spawn"));
+        }
+    }
+}
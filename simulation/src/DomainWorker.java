@@ -0,0 +1,460 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+* One strip of a domain-decomposed run (see DistributedSimulation): owns the particles with x in
+* [rank L / workers, (rank + 1) L / workers) and updates them exactly like Simulation does with neighbor lists
+* (same distance test, neighbors added in id order, same noise), so they end bit-identical to a single-process run.
+* Every step starts with an exchange with the workers of the strips on the left and on the right (periodic):
+* each one gets the particles that crossed into its strip, which it owns from then on, and the ones within rc
+* of its side, which it only reads (the halo). Then the owned particles are updated and the sum of their velocities
+* goes to the coordinator. Strips have to be wider than two halos plus one step of a particle, so a worker
+* only ever deals with its two neighbors.
+* */
+public final class DomainWorker {
+    // id, then x, y, theta, cos, sin and velocity
+    static final int RECORD_BYTES = Integer.BYTES + 6 * Double.BYTES;
+    // The halo band is a bit wider than rc so rounding in the band test never drops a neighbor
+    static final double HALO_MARGIN = 1e-6;
+
+    record Settings(int workers, int N, double timeStep, int maxIterations, int L, double rc, double nu, long seed,
+                    int rng, boolean randomNeighbour) {
+        // Narrowest strip for which every worker only exchanges with the adjacent strips
+        double minStripWidth() {
+            return 2 * (rc + HALO_MARGIN) + Simulation.VELOCITY * timeStep;
+        }
+
+        void validate() {
+            if (workers < 1) {
+                throw new IllegalArgumentException("At least one worker is needed");
+            }
+            if (workers > 1 && (double) L / workers < minStripWidth()) {
+                throw new IllegalArgumentException(String.format("Strips of width %.3f are narrower than %.3f, use at most %d workers",
+                        (double) L / workers, minStripWidth(), Math.max(1, (int) (L / minStripWidth()))));
+            }
+        }
+
+        void write(ByteBuffer buffer) {
+            buffer.putInt(workers).putInt(N).putDouble(timeStep).putInt(maxIterations).putInt(L).putDouble(rc)
+                    .putDouble(nu).putLong(seed).putInt(rng).putInt(randomNeighbour ? 1 : 0);
+        }
+
+        static Settings read(ByteBuffer buffer) {
+            return new Settings(buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.getInt(), buffer.getInt(),
+                    buffer.getDouble(), buffer.getDouble(), buffer.getLong(), buffer.getInt(), buffer.getInt() != 0);
+        }
+    }
+
+    // Growable columns of particles, in no particular order
+    static final class Particles {
+        private int size;
+        private int[] id = new int[16];
+        private double[] x = new double[16];
+        private double[] y = new double[16];
+        private double[] theta = new double[16];
+        private double[] cos = new double[16];
+        private double[] sin = new double[16];
+        private double[] velocity = new double[16];
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int id, double x, double y, double theta, double cos, double sin, double velocity) {
+            if (size == this.id.length) {
+                int capacity = size * 2;
+                this.id = Arrays.copyOf(this.id, capacity);
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.theta = Arrays.copyOf(this.theta, capacity);
+                this.cos = Arrays.copyOf(this.cos, capacity);
+                this.sin = Arrays.copyOf(this.sin, capacity);
+                this.velocity = Arrays.copyOf(this.velocity, capacity);
+            }
+            this.id[size] = id;
+            this.x[size] = x;
+            this.y[size] = y;
+            this.theta[size] = theta;
+            this.cos[size] = cos;
+            this.sin[size] = sin;
+            this.velocity[size] = velocity;
+            size++;
+        }
+
+        void add(Particles other, int i) {
+            add(other.id[i], other.x[i], other.y[i], other.theta[i], other.cos[i], other.sin[i], other.velocity[i]);
+        }
+
+        void put(ByteBuffer buffer, int i) {
+            buffer.putInt(id[i]).putDouble(x[i]).putDouble(y[i]).putDouble(theta[i])
+                    .putDouble(cos[i]).putDouble(sin[i]).putDouble(velocity[i]);
+        }
+    }
+
+    private final int rank;
+    private final Settings settings;
+    private final CounterRng rng;
+    private final MessageLink left;
+    private final MessageLink right;
+    private final MessageLink coordinator;
+    private final int workers;
+    private final int L;
+    private final double x0;
+    private final double width;
+    private final double halo;
+
+    // Owned particles first (ownedCount of them), then the halo
+    private final Particles current = new Particles();
+    // Owned particles after the step, sorted out by the next exchange
+    private final Particles next = new Particles();
+    private final Particles haloParticles = new Particles();
+    private int ownedCount;
+
+    // Cells of side at least halo over the strip and its halo bands (over the whole box with a single worker),
+    // binned with a counting sort: the particles of cell c are cellItems[cellStart[c]] .. cellItems[cellStart[c + 1] - 1]
+    private final boolean periodicColumns;
+    private final int columns;
+    private final double columnWidth;
+    private final int rows;
+    private final double rowHeight;
+    private final int[] cellStart;
+    private int[] cellItems = new int[16];
+    private int[] cellOf = new int[16];
+    // Neighbors of one particle as id << 32 | index, sorting them puts them in id order
+    private long[] neighborKeys = new long[16];
+
+    private int[] toLeft = new int[16];
+    private int[] toRight = new int[16];
+    private ByteBuffer outgoing = message(1 << 16);
+    private final ByteBuffer statistics = message(Integer.BYTES + 2 * Double.BYTES);
+
+    public DomainWorker(int rank, Settings settings, MessageLink left, MessageLink right, MessageLink coordinator) {
+        settings.validate();
+        this.rank = rank;
+        this.settings = settings;
+        this.rng = CounterRng.forId(settings.rng());
+        this.left = left;
+        this.right = right;
+        this.coordinator = coordinator;
+        this.workers = settings.workers();
+        this.L = settings.L();
+        this.x0 = (double) L * rank / workers;
+        this.width = (double) L / workers;
+        this.halo = settings.rc() + HALO_MARGIN;
+
+        this.periodicColumns = workers == 1;
+        this.rows = Math.max(1, (int) Math.floor(L / halo));
+        this.rowHeight = (double) L / rows;
+        if (periodicColumns) {
+            this.columns = rows;
+            this.columnWidth = rowHeight;
+        } else {
+            // u in [-halo, width + halo), with one extra column for particles that just crossed the far side
+            this.columns = (int) Math.ceil((width + 2 * halo) / halo) + 1;
+            this.columnWidth = halo;
+        }
+        this.cellStart = new int[columns * rows + 1];
+    }
+
+    private static ByteBuffer message(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static ByteBuffer encode(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = message(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        return buffer;
+    }
+
+    static String decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public void run() throws IOException {
+        generate();
+        for (int iteration = 1; iteration <= settings.maxIterations(); iteration++) {
+            exchange();
+            step(iteration);
+        }
+        // the final state goes to the coordinator, every particle is in exactly one next
+        outgoing = ensureCapacity(outgoing, Integer.BYTES + next.size * RECORD_BYTES);
+        outgoing.clear();
+        outgoing.putInt(next.size);
+        for (int i = 0; i < next.size; i++) {
+            next.put(outgoing, i);
+        }
+        coordinator.send(outgoing.flip());
+    }
+
+    // Same numbers as Simulation.generateParticles(), keeping the particles of this strip
+    private void generate() {
+        long seed = settings.seed();
+        for (int i = 0; i < settings.N(); i++) {
+            double currentX = rng.uniform(seed, CounterRng.INITIAL_X, i) * L;
+            if (owner(currentX) != rank) {
+                continue;
+            }
+            double currentY = rng.uniform(seed, CounterRng.INITIAL_Y, i) * L;
+            double thetaAngle = Math.toRadians(rng.uniform(seed, CounterRng.INITIAL_THETA, i) * 360);
+            next.add(i, currentX, currentY, thetaAngle, Math.cos(thetaAngle), Math.sin(thetaAngle), Simulation.VELOCITY);
+        }
+    }
+
+    private int owner(double x) {
+        return Math.min((int) (x * workers / L), workers - 1);
+    }
+
+    // x relative to the start of the strip in (-(L - width) / 2, (L + width) / 2): negative on the left side
+    private double offset(double x) {
+        double u = x - x0;
+        if (u < 0) {
+            u += L;
+        }
+        return u >= (L + width) / 2 ? u - L : u;
+    }
+
+    private void exchange() throws IOException {
+        current.clear();
+        haloParticles.clear();
+        if (workers == 1) {
+            for (int i = 0; i < next.size; i++) {
+                current.add(next, i);
+            }
+            ownedCount = current.size;
+            return;
+        }
+
+        int leftCount = 0;
+        int rightCount = 0;
+        if (toLeft.length < next.size) {
+            toLeft = new int[next.size * 2];
+            toRight = new int[next.size * 2];
+        }
+        for (int i = 0; i < next.size; i++) {
+            double u = offset(next.x[i]);
+            int owner = owner(next.x[i]);
+            if (owner == rank) {
+                current.add(next, i);
+                if (u < halo) {
+                    toLeft[leftCount++] = i;
+                }
+                if (u >= width - halo) {
+                    toRight[rightCount++] = i;
+                }
+                continue;
+            }
+            int neighbor = u < 0 ? (rank + workers - 1) % workers : (rank + 1) % workers;
+            if (owner != neighbor) {
+                throw new IllegalStateException("Particle " + next.id[i] + " crossed a whole strip in one step");
+            }
+            // it still is in the halo of this strip for the coming step
+            haloParticles.add(next, i);
+            if (u < 0) {
+                toLeft[leftCount++] = i;
+            } else {
+                toRight[rightCount++] = i;
+            }
+        }
+        send(left, toLeft, leftCount);
+        send(right, toRight, rightCount);
+        // what the right neighbor sent to its left arrives from the right, and the other way round
+        receive(left.receive());
+        receive(right.receive());
+
+        ownedCount = current.size;
+        for (int i = 0; i < haloParticles.size; i++) {
+            current.add(haloParticles, i);
+        }
+    }
+
+    private void send(MessageLink link, int[] indices, int count) throws IOException {
+        outgoing = ensureCapacity(outgoing, Integer.BYTES + count * RECORD_BYTES);
+        outgoing.clear();
+        outgoing.putInt(count);
+        for (int k = 0; k < count; k++) {
+            next.put(outgoing, indices[k]);
+        }
+        link.send(outgoing.flip());
+    }
+
+    private void receive(ByteBuffer message) {
+        int count = message.getInt();
+        for (int k = 0; k < count; k++) {
+            int id = message.getInt();
+            double x = message.getDouble();
+            double y = message.getDouble();
+            double theta = message.getDouble();
+            double cos = message.getDouble();
+            double sin = message.getDouble();
+            double velocity = message.getDouble();
+            (owner(x) == rank ? current : haloParticles).add(id, x, y, theta, cos, sin, velocity);
+        }
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        return buffer.capacity() >= capacity ? buffer : message(Math.max(capacity, buffer.capacity() * 2));
+    }
+
+    private int column(double x) {
+        if (periodicColumns) {
+            return Math.min((int) (x / columnWidth), columns - 1);
+        }
+        int column = (int) Math.floor((offset(x) + halo) / columnWidth);
+        return Math.max(0, Math.min(column, columns - 1));
+    }
+
+    private int row(double y) {
+        return Math.min((int) (y / rowHeight), rows - 1);
+    }
+
+    private void buildCells() {
+        int size = current.size;
+        if (cellItems.length < size) {
+            cellItems = new int[size * 2];
+            cellOf = new int[size * 2];
+        }
+        Arrays.fill(cellStart, 0);
+        for (int j = 0; j < size; j++) {
+            cellOf[j] = column(current.x[j]) * rows + row(current.y[j]);
+            cellStart[cellOf[j] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        // cellStart[c] is used as insertion cursor and restored afterwards
+        for (int j = 0; j < size; j++) {
+            cellItems[cellStart[cellOf[j]]++] = j;
+        }
+        for (int c = columns * rows; c > 0; c--) {
+            cellStart[c] = cellStart[c - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    // Neighbors of owned particle i within rc, as keys sorted by id
+    private int findNeighbors(int i) {
+        double rc2 = settings.rc() * settings.rc();
+        double x = current.x[i];
+        double y = current.y[i];
+        int column = cellOf[i] / rows;
+        int row = cellOf[i] % rows;
+        int found = 0;
+        // with fewer than 3 periodic rows or columns the offsets -1 and +1 wrap onto the same one, so all are scanned
+        int firstColumn = periodicColumns && columns < 3 ? 0 : column - 1;
+        int lastColumn = periodicColumns && columns < 3 ? columns - 1 : column + 1;
+        int firstRow = rows < 3 ? 0 : row - 1;
+        int lastRow = rows < 3 ? rows - 1 : row + 1;
+        for (int cx = firstColumn; cx <= lastColumn; cx++) {
+            int neighborColumn = periodicColumns ? (cx + columns) % columns : cx;
+            if (neighborColumn < 0 || neighborColumn >= columns) {
+                continue;
+            }
+            for (int cy = firstRow; cy <= lastRow; cy++) {
+                int cell = neighborColumn * rows + (cy + rows) % rows;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int j = cellItems[k];
+                    // same test as the cell index kernels, so both accept exactly the same pairs
+                    if (j != i && DistanceKernel.distance2(current.x[j] - x, current.y[j] - y, L) <= rc2) {
+                        if (found == neighborKeys.length) {
+                            neighborKeys = Arrays.copyOf(neighborKeys, found * 2);
+                        }
+                        neighborKeys[found++] = (long) current.id[j] << 32 | j;
+                    }
+                }
+            }
+        }
+        Arrays.sort(neighborKeys, 0, found);
+        return found;
+    }
+
+    // Same update as Simulation.align() and Simulation.updatePositionsRandomNeighbour()
+    private void step(int iteration) throws IOException {
+        buildCells();
+        next.clear();
+        double timeStep = settings.timeStep();
+        double velocityX = 0.0;
+        double velocityY = 0.0;
+        for (int i = 0; i < ownedCount; i++) {
+            int neighborCount = findNeighbors(i);
+            double cos = current.cos[i];
+            double sin = current.sin[i];
+            double velocity = current.velocity[i];
+            double newThetaAngle = current.theta[i];
+            double newCos = cos;
+            double newSin = sin;
+            double uniform = rng.uniform(settings.seed(), iteration, current.id[i]);
+
+            if (settings.randomNeighbour()) {
+                if (neighborCount > 0) {
+                    int source = (int) neighborKeys[(int) (uniform * neighborCount)];
+                    newThetaAngle = current.theta[source];
+                    newCos = current.cos[source];
+                    newSin = current.sin[source];
+                }
+            } else if (neighborCount > 0) {
+                double cosSum = cos;
+                double sinSum = sin;
+                for (int k = 0; k < neighborCount; k++) {
+                    int neighbor = (int) neighborKeys[k];
+                    cosSum += current.cos[neighbor];
+                    sinSum += current.sin[neighbor];
+                }
+                int size = neighborCount + 1;
+                double averageTheta = Math.atan2(sinSum / size, cosSum / size);
+                newThetaAngle = averageTheta + (uniform - 0.5) * settings.nu();
+                newCos = Math.cos(newThetaAngle);
+                newSin = Math.sin(newThetaAngle);
+            }
+
+            double newX = (current.x[i] + velocity * cos * timeStep) % L;
+            double newY = (current.y[i] + velocity * sin * timeStep) % L;
+            if (newX < 0)
+                newX += L;
+            if (newY < 0)
+                newY += L;
+
+            next.add(current.id[i], newX, newY, newThetaAngle, newCos, newSin, velocity);
+            velocityX += velocity * newCos;
+            velocityY += velocity * newSin;
+        }
+
+        statistics.clear();
+        statistics.putInt(iteration).putDouble(velocityX).putDouble(velocityY).flip();
+        coordinator.send(statistics);
+    }
+
+    // Worker process: java DomainWorker <coordinator address>, connects to a DistributedSimulation and runs the strip
+    // it is given. Neighbors connect to each other directly, only the polarization goes through the coordinator
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java DomainWorker <coordinator host:port | unix:path>");
+            System.exit(1);
+        }
+        String coordinatorAddress = args[0];
+        try (SocketLink coordinator = SocketLink.connect(coordinatorAddress)) {
+            ByteBuffer assignment = coordinator.receive();
+            int rank = assignment.getInt();
+            Settings settings = Settings.read(assignment);
+
+            // TCP peers listen on any free port and the coordinator fills in the host it sees them from
+            boolean unix = SocketLink.isUnix(coordinatorAddress);
+            ServerSocketChannel server = SocketLink.listen(unix ? coordinatorAddress + "." + rank : "0.0.0.0:0");
+            try {
+                coordinator.send(encode(unix ? coordinatorAddress + "." + rank : ":" + SocketLink.port(server)));
+                String rightAddress = decode(coordinator.receive());
+                try (SocketLink right = SocketLink.connect(rightAddress); SocketLink left = SocketLink.accept(server)) {
+                    new DomainWorker(rank, settings, left, right, coordinator).run();
+                }
+            } finally {
+                SocketLink.close(server);
+            }
+        }
+    }
+}
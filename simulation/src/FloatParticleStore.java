@@ -0,0 +1,155 @@
+/*
+* HeapParticleStore in float: the state of Precision.MIXED and FLOAT runs, half the memory of the double one.
+* Values are rounded to float when written and read back as doubles. Positions close to L may round to L itself,
+* which the cell index and the distance kernels accept like any coordinate in [0, L).
+* */
+public final class FloatParticleStore extends ParticleStore {
+    private final int size;
+
+    // Front buffer: state of the current step
+    private float[] x;
+    private float[] y;
+    private float[] theta;
+    private float[] cos;
+    private float[] sin;
+
+    // Back buffer: state being written for the next step
+    private float[] nextX;
+    private float[] nextY;
+    private float[] nextTheta;
+    private float[] nextCos;
+    private float[] nextSin;
+
+    // Velocity does not change between steps, no need to double buffer it
+    private final float[] velocity;
+
+    public FloatParticleStore(int size) {
+        this.size = size;
+        this.x = new float[size];
+        this.y = new float[size];
+        this.theta = new float[size];
+        this.cos = new float[size];
+        this.sin = new float[size];
+        this.nextX = new float[size];
+        this.nextY = new float[size];
+        this.nextTheta = new float[size];
+        this.nextCos = new float[size];
+        this.nextSin = new float[size];
+        this.velocity = new float[size];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getX(int i) {
+        return x[i];
+    }
+
+    @Override
+    public double getY(int i) {
+        return y[i];
+    }
+
+    @Override
+    public double getTheta(int i) {
+        return theta[i];
+    }
+
+    @Override
+    public double getCos(int i) {
+        return cos[i];
+    }
+
+    @Override
+    public double getSin(int i) {
+        return sin[i];
+    }
+
+    @Override
+    public double getVelocity(int i) {
+        return velocity[i];
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double velocity) {
+        this.x[i] = (float) x;
+        this.y[i] = (float) y;
+        this.theta[i] = (float) theta;
+        this.cos[i] = (float) Math.cos(theta);
+        this.sin[i] = (float) Math.sin(theta);
+        this.velocity[i] = (float) velocity;
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double cos, double sin, double velocity) {
+        this.x[i] = (float) x;
+        this.y[i] = (float) y;
+        this.theta[i] = (float) theta;
+        this.cos[i] = (float) cos;
+        this.sin[i] = (float) sin;
+        this.velocity[i] = (float) velocity;
+    }
+
+    @Override
+    public void setNext(int i, double x, double y, double theta, double cos, double sin) {
+        this.nextX[i] = (float) x;
+        this.nextY[i] = (float) y;
+        this.nextTheta[i] = (float) theta;
+        this.nextCos[i] = (float) cos;
+        this.nextSin[i] = (float) sin;
+    }
+
+    @Override
+    protected void setVelocity(int i, double velocity) {
+        this.velocity[i] = (float) velocity;
+    }
+
+    @Override
+    public void swap() {
+        float[] aux = x;
+        x = nextX;
+        nextX = aux;
+
+        aux = y;
+        y = nextY;
+        nextY = aux;
+
+        aux = theta;
+        theta = nextTheta;
+        nextTheta = aux;
+
+        aux = cos;
+        cos = nextCos;
+        nextCos = aux;
+
+        aux = sin;
+        sin = nextSin;
+        nextSin = aux;
+    }
+
+    @Override
+    public ParticleStore allocateLike() {
+        return new FloatParticleStore(size);
+    }
+
+    // Plain array copies when both stores are float ones
+    @Override
+    public void copyFrom(ParticleStore other) {
+        if (!(other instanceof FloatParticleStore floats)) {
+            super.copyFrom(other);
+            return;
+        }
+        if (floats.size != size) {
+            throw new IllegalArgumentException("Store sizes differ: " + floats.size + " != " + size);
+        }
+        System.arraycopy(floats.x, 0, x, 0, size);
+        System.arraycopy(floats.y, 0, y, 0, size);
+        System.arraycopy(floats.theta, 0, theta, 0, size);
+        System.arraycopy(floats.cos, 0, cos, 0, size);
+        System.arraycopy(floats.sin, 0, sin, 0, size);
+        System.arraycopy(floats.velocity, 0, velocity, 0, size);
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Triple buffer between the simulation thread (writer) and a display (reader).
+* The writer fills the back slot and swaps it with the middle one, the reader swaps the middle slot with its front one
+* when there is something new, so neither side ever waits for the other.
+* The writer only copies a frame when the reader has taken the previous one: frames are dropped at display rate
+* and the simulation pays at most one copy per displayed frame. Slots are float snapshots, enough for drawing.
+* */
+public final class FrameBuffer {
+    // Lowest 2 bits of middle: index of the middle slot, FRESH: it holds a frame the reader has not taken
+    private static final int FRESH = 4;
+
+    private final ParticleStore[] slots = new ParticleStore[3];
+    private final int[] steps = new int[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+    private boolean hasFrame = false;
+
+    public FrameBuffer(int N) {
+        for (int s = 0; s < slots.length; s++) {
+            slots[s] = new SnapshotStore(N, true);
+        }
+    }
+
+    // Writer side: hands over the state after the given step, unless the reader still has an unseen frame
+    public void offer(int step, ParticleStore particles) {
+        if ((middle.get() & FRESH) != 0) {
+            return;
+        }
+        slots[back].copyFrom(particles);
+        steps[back] = step;
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    // Reader side: the newest frame, kept until a newer one arrives, null before the first one
+    public ParticleStore latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & 3;
+            hasFrame = true;
+        }
+        return hasFrame ? slots[front] : null;
+    }
+
+    // Reader side: step of the frame returned by the last latest()
+    public int latestStep() {
+        return steps[front];
+    }
+}
@@ -0,0 +1,51 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+/*
+* Draws a frame as one arrow per particle, colored by heading (hue = theta / 2 pi).
+* Shared by the live view and the PNG export so both look the same.
+* */
+public final class FrameRenderer {
+    private static final int COLORS = 256;
+    private static final Color[] PALETTE = new Color[COLORS];
+    // Half angle between the arrow head strokes and the shaft
+    private static final double HEAD_COS = Math.cos(Math.toRadians(150));
+    private static final double HEAD_SIN = Math.sin(Math.toRadians(150));
+
+    static {
+        for (int c = 0; c < COLORS; c++) {
+            PALETTE[c] = Color.getHSBColor((float) c / COLORS, 0.9f, 0.85f);
+        }
+    }
+
+    private FrameRenderer() {
+    }
+
+    // Fits the L x L box in width x height, y grows upwards like in the simulation
+    public static void draw(Graphics2D g, ParticleStore particles, int L, int width, int height) {
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        double scale = (double) Math.min(width, height) / L;
+        // arrows of half an interaction radius (rc = 1 in most runs), never shorter than a few pixels
+        double length = Math.max(4, scale * 0.5);
+        double head = length * 0.4;
+        for (int i = 0; i < particles.size(); i++) {
+            double cos = particles.getCos(i);
+            double sin = particles.getSin(i);
+            int tipX = (int) (particles.getX(i) * scale + cos * length / 2);
+            int tipY = (int) ((L - particles.getY(i)) * scale - sin * length / 2);
+            int tailX = (int) (tipX - cos * length);
+            int tailY = (int) (tipY + sin * length);
+
+            int hue = (int) (Math.atan2(sin, cos) / (2 * Math.PI) * COLORS + COLORS) % COLORS;
+            g.setColor(PALETTE[hue]);
+            g.drawLine(tailX, tailY, tipX, tipY);
+            // head strokes: the heading rotated by +-150 degrees
+            g.drawLine(tipX, tipY, (int) (tipX + (cos * HEAD_COS - sin * HEAD_SIN) * head),
+                    (int) (tipY - (sin * HEAD_COS + cos * HEAD_SIN) * head));
+            g.drawLine(tipX, tipY, (int) (tipX + (cos * HEAD_COS + sin * HEAD_SIN) * head),
+                    (int) (tipY - (sin * HEAD_COS - cos * HEAD_SIN) * head));
+        }
+    }
+}
@@ -1,15 +1,25 @@
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 public class FrontEndGui {
+    private static final String CHECKPOINT_FILE = "checkpoint.bin";
     private static Simulation sim;
 
     public static void main(String[] args) {
@@ -25,7 +35,7 @@ public class FrontEndGui {
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(5,5,5,5);
 
-        String[] simTypes = {"New Simulation Data", "Animation", "RandomNeighbour", "Polarization", "Polarization PHI", "Density"};
+        String[] simTypes = {"New Simulation Data", "Animation", "RandomNeighbour", "Polarization", "Polarization PHI", "Density", "Sweep", "Restore Checkpoint", "Live View"};
         JComboBox<String> simTypeBox = new JComboBox<>(simTypes);
         gbc.gridx = 0; gbc.gridy = 0; gbc.gridwidth = 2;
         frame.add(simTypeBox, gbc);
@@ -48,9 +58,21 @@ public class FrontEndGui {
         JLabel nuLabel = new JLabel("Nu:"); 
         JTextField nuField = new JTextField("1");
 
+        // Runs write checkpoint.bin every that many steps, 0 disables checkpoints
+        JLabel checkpointLabel = new JLabel("Checkpoint every:");
+        JTextField checkpointField = new JTextField("0");
+
+        // Empty picks a random seed, either way it is written to every output file
+        JLabel seedLabel = new JLabel("Seed:");
+        JTextField seedField = new JTextField("");
+
+        JLabel rngLabel = new JLabel("Generator:");
+        JComboBox<String> rngBox = new JComboBox<>(new String[]{SplitMixRng.NAME, PhiloxRng.NAME});
+
         JComponent[][] newSimFields = {
                 {nLabel, nField}, {tsLabel, tsField}, {maxIterLabel, maxIterField},
-                {lLabel, lField}, {rLabel, rField}, {nuLabel, nuField}
+                {lLabel, lField}, {rLabel, rField}, {nuLabel, nuField}, {checkpointLabel, checkpointField},
+                {seedLabel, seedField}, {rngLabel, rngBox}
         };
 
         JLabel fileLabel = new JLabel("Output file:"); JTextField fileField = new JTextField("output.txt");
@@ -68,8 +90,17 @@ public class FrontEndGui {
         JLabel minNuLabel = new JLabel("Min Nu:"); JTextField minNuField = new JTextField("0.1");
         JLabel maxNuLabel = new JLabel("Max Nu:"); JTextField maxNuField = new JTextField("5");
         JLabel stepNuLabel = new JLabel("Step Nu:"); JTextField stepNuField = new JTextField("0.1");
+        // 0 runs every point for the full iterations, otherwise each point stops once its mean is this precise
+        JLabel targetErrorLabel = new JLabel("Target error:"); JTextField targetErrorField = new JTextField("0");
         JComponent[][] polarizationFields = {
-                {minNuLabel, minNuField}, {maxNuLabel, maxNuField}, {stepNuLabel, stepNuField}
+                {minNuLabel, minNuField}, {maxNuLabel, maxNuField}, {stepNuLabel, stepNuField},
+                {targetErrorLabel, targetErrorField}
+        };
+
+        JLabel replicasLabel = new JLabel("Replicas:"); JTextField replicasField = new JTextField("3");
+        JLabel transientLabel = new JLabel("Transient steps:"); JTextField transientField = new JTextField("200");
+        JComponent[][] sweepFields = {
+                {replicasLabel, replicasField}, {transientLabel, transientField}
         };
 
         int row = 1;
@@ -93,6 +124,12 @@ public class FrontEndGui {
             row++;
         }
 
+        for (JComponent[] field : sweepFields) {
+            gbc.gridx = 0; gbc.gridy = row; frame.add(field[0], gbc);
+            gbc.gridx = 1; frame.add(field[1], gbc);
+            row++;
+        }
+
         JButton runButton = new JButton("Run");
         gbc.gridx = 0; gbc.gridy = row; gbc.gridwidth = 2;
         frame.add(runButton, gbc);
@@ -107,10 +144,13 @@ public class FrontEndGui {
             fileLabel.setVisible(fileVisible);
             fileField.setVisible(fileVisible);
 
-            boolean densityVisible = type.equals("Density");
+            boolean sweepVisible = type.equals("Sweep");
+            for (JComponent[] f : sweepFields) { f[0].setVisible(sweepVisible); f[1].setVisible(sweepVisible); }
+
+            boolean densityVisible = type.equals("Density") || sweepVisible;
             for (JComponent[] f : densityFields) { f[0].setVisible(densityVisible); f[1].setVisible(densityVisible); }
 
-            boolean polarizationVisible = type.equals("Polarization");
+            boolean polarizationVisible = type.equals("Polarization") || sweepVisible;
             for (JComponent[] f : polarizationFields) { f[0].setVisible(polarizationVisible); f[1].setVisible(polarizationVisible); }
         });
 
@@ -127,24 +167,57 @@ public class FrontEndGui {
                         int L = Integer.parseInt(lField.getText());
                         double r = Double.parseDouble(rField.getText());
                         double nu = Double.parseDouble(nuField.getText());
-                        generateNewSimulation(N, (int) ts, maxIter, L, r, nu);
-                        JOptionPane.showMessageDialog(frame, "New Simulation Data created!");
+                        int checkpointInterval = Integer.parseInt(checkpointField.getText());
+                        String seed = seedField.getText().trim();
+                        generateNewSimulation(N, (int) ts, maxIter, L, r, nu,
+                                seed.isEmpty() ? new Random().nextLong() : Long.parseLong(seed),
+                                CounterRng.forName((String) rngBox.getSelectedItem()));
+                        sim.setCheckpoint(CHECKPOINT_FILE, checkpointInterval);
+                        JOptionPane.showMessageDialog(frame, "New Simulation Data created (seed " + sim.getSeed() + ")!");
+                    }
+                    case "Animation" -> {
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSimulationForAnimation(file));
+                    }
+                    case "RandomNeighbour" -> {
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSimulationForAnimationRandomNeighbour(file));
                     }
-                    case "Animation" -> runSimulationForAnimation(fileField.getText());
-                    case "RandomNeighbour" -> runSimulationForAnimationRandomNeighbour(fileField.getText());
                     case "Polarization" -> {
                         double minNu = Double.parseDouble(minNuField.getText());
                         double maxNu = Double.parseDouble(maxNuField.getText());
                         double stepNu = Double.parseDouble(stepNuField.getText());
-                        runSimulationForPolarization(fileField.getText(), minNu, maxNu, stepNu);
+                        sim.setTargetError(Double.parseDouble(targetErrorField.getText()));
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSimulationForPolarization(file, minNu, maxNu, stepNu));
                     }
                     case "Density" -> {
                         int minN = Integer.parseInt(minNField.getText());
                         int maxN = Integer.parseInt(maxNField.getText());
                         int stepN = Integer.parseInt(stepNField.getText());
-                        runSimulationForDensity(fileField.getText(), minN, maxN, stepN);
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSimulationForDensity(file, minN, maxN, stepN));
                     }
-                    case "Polarization PHI" -> runSimulationForPolarizationRandomNeighbor(fileField.getText());
+                    case "Polarization PHI" -> {
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSimulationForPolarizationRandomNeighbor(file));
+                    }
+                    case "Sweep" -> {
+                        double minNu = Double.parseDouble(minNuField.getText());
+                        double maxNu = Double.parseDouble(maxNuField.getText());
+                        double stepNu = Double.parseDouble(stepNuField.getText());
+                        int minN = Integer.parseInt(minNField.getText());
+                        int maxN = Integer.parseInt(maxNField.getText());
+                        int stepN = Integer.parseInt(stepNField.getText());
+                        int replicas = Integer.parseInt(replicasField.getText());
+                        int transientSteps = Integer.parseInt(transientField.getText());
+                        double targetError = Double.parseDouble(targetErrorField.getText());
+                        String file = fileField.getText();
+                        runInBackground(runButton, () -> runSweep(file, minNu, maxNu, stepNu, minN, maxN, stepN, replicas,
+                                transientSteps, targetError));
+                    }
+                    case "Restore Checkpoint" -> restoreCheckpoint(fileField.getText());
+                    case "Live View" -> openLiveView();
                 }
             } catch (HeadlessException | NumberFormatException ex) {
                 JOptionPane.showMessageDialog(frame, "Error: " + ex.getMessage());
@@ -154,34 +227,118 @@ public class FrontEndGui {
         frame.setVisible(true);
     }
 
+    // Runs are done off the Event Dispatch Thread so the window stays responsive, one at a time
+    private static void runInBackground(JButton runButton, Runnable run) {
+        runButton.setEnabled(false);
+        Thread thread = new Thread(() -> {
+            try {
+                run.run();
+            } finally {
+                SwingUtilities.invokeLater(() -> runButton.setEnabled(true));
+            }
+        }, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void showMessage(String message) {
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, message));
+    }
+
+    // Runs the current simulation from its initial state on a background thread and shows it while it runs
+    private static void openLiveView() {
+        FrameBuffer frames = new FrameBuffer(sim.getN());
+        RunControl control = new RunControl();
+        LiveView view = new LiveView(frames, sim.getL());
+
+        JFrame window = new JFrame("Live View");
+        JButton pauseButton = new JButton("Pause");
+        JButton cancelButton = new JButton("Cancel");
+        JProgressBar progressBar = new JProgressBar(0, sim.getMaxIterations());
+        JLabel progressLabel = new JLabel("Step 0 / " + sim.getMaxIterations());
+        JPanel controls = new JPanel();
+        controls.add(pauseButton);
+        controls.add(cancelButton);
+        controls.add(progressBar);
+        controls.add(progressLabel);
+        window.setLayout(new BorderLayout());
+        window.add(view, BorderLayout.CENTER);
+        window.add(controls, BorderLayout.SOUTH);
+
+        pauseButton.addActionListener(e -> {
+            if (control.isPaused()) {
+                control.resume();
+                pauseButton.setText("Pause");
+            } else {
+                control.pause();
+                pauseButton.setText("Resume");
+            }
+        });
+        cancelButton.addActionListener(e -> control.cancel());
+        Timer progress = new Timer(100, e -> {
+            progressBar.setValue(control.getStep());
+            progressLabel.setText("Step " + control.getStep() + " / " + control.getTotalSteps());
+        });
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                control.cancel();
+                progress.stop();
+                view.stop();
+            }
+        });
+        window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        window.pack();
+        window.setVisible(true);
+        view.start();
+        progress.start();
+
+        Thread thread = new Thread(() -> {
+            sim.resetParticlesToInitialSnapshot();
+            sim.runLive(frames, control, false);
+            SwingUtilities.invokeLater(() -> {
+                pauseButton.setEnabled(false);
+                cancelButton.setEnabled(false);
+                progressLabel.setText((control.isCancelled() ? "Cancelled at step " : "Finished at step ") + control.getStep());
+            });
+        }, "live-simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     private static void runSimulationForAnimation(String file) {
         sim.resetParticlesToInitialSnapshot();
         sim.runSimulationForAnimation(file);
-        JOptionPane.showMessageDialog(null, "Animation finished!");
+        showMessage("Animation finished!");
     }
 
     private static void runSimulationForAnimationRandomNeighbour(String file) {
         sim.resetParticlesToInitialSnapshot();
         sim.runSimulationForAnimationRandomNeighbour(file);
-        JOptionPane.showMessageDialog(null, "Random Neighbour Animation finished!");
+        showMessage("Random Neighbour Animation finished!");
     }
 
     private static void runSimulationForPolarization(String file, double minNu, double maxNu, double stepNu) {
         double auxNu = sim.getNu();
+        StringBuilder message = new StringBuilder("Polarization Animation finished!");
         for (double nu = minNu; nu <= maxNu; nu += stepNu) {
             String cFile = String.format("%s_nu_%.2f.txt", file.replace(".txt", ""), nu);
             sim.resetParticlesToInitialSnapshot();
-            sim.runSimulationForPolarization(cFile, nu);
+            SteadyStateMonitor monitor = sim.runSimulationForPolarization(cFile, nu);
+            // with a target error every nu reports where it stopped
+            if (monitor != null) {
+                message.append(String.format("\nnu %.2f: %s", nu, monitor.summary()));
+            }
         }
         sim.setNu(auxNu);
-        JOptionPane.showMessageDialog(null, "Polarization Animation finished!");
+        showMessage(message.toString());
     }
 
     private static void runSimulationForPolarizationRandomNeighbor(String file) {
         String cFile = String.format("%s_phi.txt", file.replace(".txt", ""));
         sim.resetParticlesToInitialSnapshot();
         sim.runSimulationForPolarizationRandomNeighbor(cFile);
-        JOptionPane.showMessageDialog(null, "Polarization Phi  finished!");
+        showMessage("Polarization Phi  finished!");
     }
 
     private static void runSimulationForDensity(String file, int minN, int maxN, int stepN) {
@@ -192,10 +349,56 @@ public class FrontEndGui {
             sim.runSimulationForDensity(cFile, n);
         }
         sim.setN(auxN);
-        JOptionPane.showMessageDialog(null, "Density Animation finished!");
+        showMessage("Density Animation finished!");
     }
 
-    private static void generateNewSimulation(int N, int ts, int maxIter, int L, double r, double nu) {
-        FrontEndGui.sim = new Simulation(N, ts, maxIter, L, r, nu);
+    // Every (nu, N, replica) point is an independent simulation, the sweep runs them concurrently
+    // and writes a single table; points already in the table are not run again.
+    // With a target error the transient steps are detected instead of fixed
+    private static void runSweep(String file, double minNu, double maxNu, double stepNu,
+                                 int minN, int maxN, int stepN, int replicas, int transientSteps, double targetError) {
+        ParameterSweep sweep = new ParameterSweep(sim.getL(), sim.getRc(), sim.getTimeStep(), sim.getMaxIterations(), transientSteps);
+        sweep.setTargetError(targetError);
+
+        List<Double> nus = new ArrayList<>();
+        for (double nu = minNu; nu <= maxNu; nu += stepNu) {
+            nus.add(nu);
+        }
+        List<Double> densities = new ArrayList<>();
+        for (int n = minN; n <= maxN; n += stepN) {
+            densities.add((double) n / (sim.getL() * sim.getL()));
+        }
+        long[] seeds = new long[replicas];
+        for (int r = 0; r < replicas; r++) {
+            seeds[r] = sim.getSeed() + r;
+        }
+        sweep.setNus(nus.stream().mapToDouble(Double::doubleValue).toArray());
+        sweep.setDensities(densities.stream().mapToDouble(Double::doubleValue).toArray());
+        sweep.setSeeds(seeds);
+
+        try {
+            int points = sweep.run(file);
+            showMessage("Sweep finished! " + points + " points computed");
+        } catch (IOException e) {
+            showMessage("Sweep failed: " + e.getMessage());
+        }
+    }
+
+    // The next run continues from the checkpointed step and keeps writing checkpoints to the same file
+    private static void restoreCheckpoint(String file) {
+        try {
+            sim = Simulation.restore(file);
+            showMessage("Checkpoint restored!");
+        } catch (IOException e) {
+            showMessage("Restore failed: " + e.getMessage());
+        }
+    }
+
+    private static void generateNewSimulation(int N, int ts, int maxIter, int L, double r, double nu, long seed,
+                                              CounterRng rng) {
+        FrontEndGui.sim = new Simulation(N, ts, maxIter, L, r, nu, seed);
+        if (rng.id() != sim.getRng().id()) {
+            sim.setRng(rng);
+        }
     }
 }
@@ -0,0 +1,152 @@
+/*
+* Structure-of-arrays storage for the particle state on the Java heap.
+* Positions and angles live in a front buffer (current step) and a back buffer (next step),
+* the buffers are swapped after every update so stepping the simulation does not allocate.
+* The heading is also kept as a unit vector (cos, sin), computed once when the angle is written,
+* so alignment sums, displacements and polarization do not need trigonometry.
+* */
+public final class HeapParticleStore extends ParticleStore {
+    private final int size;
+
+    // Front buffer: state of the current step
+    private double[] x;
+    private double[] y;
+    private double[] theta;
+    private double[] cos;
+    private double[] sin;
+
+    // Back buffer: state being written for the next step
+    private double[] nextX;
+    private double[] nextY;
+    private double[] nextTheta;
+    private double[] nextCos;
+    private double[] nextSin;
+
+    // Velocity does not change between steps, no need to double buffer it
+    private final double[] velocity;
+
+    public HeapParticleStore(int size) {
+        this.size = size;
+        this.x = new double[size];
+        this.y = new double[size];
+        this.theta = new double[size];
+        this.cos = new double[size];
+        this.sin = new double[size];
+        this.nextX = new double[size];
+        this.nextY = new double[size];
+        this.nextTheta = new double[size];
+        this.nextCos = new double[size];
+        this.nextSin = new double[size];
+        this.velocity = new double[size];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getX(int i) {
+        return x[i];
+    }
+
+    @Override
+    public double getY(int i) {
+        return y[i];
+    }
+
+    @Override
+    public double getTheta(int i) {
+        return theta[i];
+    }
+
+    @Override
+    public double getCos(int i) {
+        return cos[i];
+    }
+
+    @Override
+    public double getSin(int i) {
+        return sin[i];
+    }
+
+    @Override
+    public double getVelocity(int i) {
+        return velocity[i];
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double velocity) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.theta[i] = theta;
+        this.cos[i] = Math.cos(theta);
+        this.sin[i] = Math.sin(theta);
+        this.velocity[i] = velocity;
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double cos, double sin, double velocity) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.theta[i] = theta;
+        this.cos[i] = cos;
+        this.sin[i] = sin;
+        this.velocity[i] = velocity;
+    }
+
+    @Override
+    public void setNext(int i, double x, double y, double theta, double cos, double sin) {
+        this.nextX[i] = x;
+        this.nextY[i] = y;
+        this.nextTheta[i] = theta;
+        this.nextCos[i] = cos;
+        this.nextSin[i] = sin;
+    }
+
+    @Override
+    protected void setVelocity(int i, double velocity) {
+        this.velocity[i] = velocity;
+    }
+
+    @Override
+    public void swap() {
+        double[] aux = x;
+        x = nextX;
+        nextX = aux;
+
+        aux = y;
+        y = nextY;
+        nextY = aux;
+
+        aux = theta;
+        theta = nextTheta;
+        nextTheta = aux;
+
+        aux = cos;
+        cos = nextCos;
+        nextCos = aux;
+
+        aux = sin;
+        sin = nextSin;
+        nextSin = aux;
+    }
+
+    // Plain array copies when both stores are on the heap
+    @Override
+    public void copyFrom(ParticleStore other) {
+        if (!(other instanceof HeapParticleStore heap)) {
+            super.copyFrom(other);
+            return;
+        }
+        if (heap.size != size) {
+            throw new IllegalArgumentException("Store sizes differ: " + heap.size + " != " + size);
+        }
+        System.arraycopy(heap.x, 0, x, 0, size);
+        System.arraycopy(heap.y, 0, y, 0, size);
+        System.arraycopy(heap.theta, 0, theta, 0, size);
+        System.arraycopy(heap.cos, 0, cos, 0, size);
+        System.arraycopy(heap.sin, 0, sin, 0, size);
+        System.arraycopy(heap.velocity, 0, velocity, 0, size);
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+* MessageLink between threads of the same JVM, every message is copied into a queue of the other end.
+* Closing one end makes receive() fail on the other one once the messages sent before are consumed.
+* */
+public final class InProcessLink implements MessageLink {
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+    private final BlockingQueue<ByteBuffer> incoming = new LinkedBlockingQueue<>();
+    private InProcessLink peer;
+
+    private InProcessLink() {
+    }
+
+    // Both ends of a new link
+    public static InProcessLink[] pair() {
+        InProcessLink first = new InProcessLink();
+        InProcessLink second = new InProcessLink();
+        first.peer = second;
+        second.peer = first;
+        return new InProcessLink[]{first, second};
+    }
+
+    @Override
+    public void send(ByteBuffer message) {
+        ByteBuffer copy = ByteBuffer.allocate(message.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(message.duplicate()).flip();
+        peer.incoming.add(copy);
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        try {
+            ByteBuffer message = incoming.take();
+            if (message == CLOSED) {
+                incoming.add(CLOSED);
+                throw new IOException("Link closed by the other end");
+            }
+            return message;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a message", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        peer.incoming.add(CLOSED);
+    }
+}
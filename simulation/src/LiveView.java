@@ -0,0 +1,43 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/*
+* Swing component that draws the newest frame of a FrameBuffer at display rate.
+* Repaints are driven by a timer on the Event Dispatch Thread, independent of the simulation speed.
+* Swing components are Serializable, this one is never serialized.
+* */
+@SuppressWarnings("serial")
+public final class LiveView extends JComponent {
+    private static final int FRAME_MILLIS = 16;
+
+    private final FrameBuffer frames;
+    private final int L;
+    private final Timer timer;
+
+    public LiveView(FrameBuffer frames, int L) {
+        this.frames = frames;
+        this.L = L;
+        this.timer = new Timer(FRAME_MILLIS, e -> repaint());
+        setPreferredSize(new Dimension(700, 700));
+    }
+
+    public void start() {
+        timer.start();
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        ParticleStore frame = frames.latest();
+        if (frame == null) {
+            return;
+        }
+        FrameRenderer.draw((Graphics2D) g, frame, L, getWidth(), getHeight());
+    }
+}
@@ -27,7 +27,10 @@ public class Main {
 
         
         /*for(double nu = 5; nu > 0; nu-=0.1 ){
-            sim.runSimulationForPolarization("polarization.txt", nu);
+            SteadyStateMonitor monitor = sim.runSimulationForPolarization("polarization.txt", nu);
+            if (monitor != null) {
+                System.out.println(monitor.summary());
+            }
         }*/
         
 
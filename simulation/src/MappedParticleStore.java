@@ -0,0 +1,291 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Particle state in a memory-mapped file instead of the Java heap, for systems whose state does not fit in a
+* reasonable heap. The columns are those of HeapParticleStore: x, y, theta, cos and sin of both buffers and the velocity,
+* 11 columns of N native-order doubles, or floats for the single precision modes (88 or 44 bytes per particle).
+* cos and sin are kept like theta so the alignment kernels read the heading without trigonometry.
+* The operating system pages the columns in and out, the heap only holds the mappings.
+* Each column is mapped in chunks of 2^27 values since a single mapping is limited to 2 GB.
+* The header records which buffer is the current step, so after close() the file is an image of that step which
+* open() maps again. Temporary stores delete their file on close() instead. A closed store must not be used.
+* Checkpoint copies are temporary mapped stores too (allocateLike). What still grows with N on the heap: the cell index
+* (cell and order of every particle, plus the cell-ordered copies of the fused kernels), the neighbor lists (one int per
+* neighbor), the Verlet lists, ids, slotOf and the random numbers of a step in Simulation, and the output snapshots of
+* trajectories and the live view (SnapshotStore, 12 or 24 bytes per particle and slot).
+*
+* File layout (native byte order):
+*   header:  magic "VCSKSTO1", int32 version, int32 N, int32 bytes per value, int32 current buffer (0 or 1),
+*            padded to HEADER_BYTES
+*   columns: x, y, theta, cos, sin of buffer 0, the same of buffer 1, velocity
+* */
+public final class MappedParticleStore extends ParticleStore implements AutoCloseable {
+    static final byte[] MAGIC = "VCSKSTO1".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int FRONT_OFFSET = MAGIC.length + 3 * Integer.BYTES;
+    private static final int CHUNK_SHIFT = 27;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    private static final int COLUMNS = 11;
+
+    private static final class Column {
+        private final MappedByteBuffer[] chunks;
+        private final boolean single;
+
+        Column(FileChannel channel, long offset, int size, int width) throws IOException {
+            int count = (int) (((long) size + CHUNK_MASK) >>> CHUNK_SHIFT);
+            this.chunks = new MappedByteBuffer[count];
+            this.single = width == Float.BYTES;
+            for (int c = 0; c < count; c++) {
+                long first = (long) c << CHUNK_SHIFT;
+                long bytes = Math.min(1L << CHUNK_SHIFT, size - first) * width;
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, offset + first * width, bytes);
+                chunks[c].order(ByteOrder.nativeOrder());
+            }
+        }
+
+        double get(int i) {
+            MappedByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+            return single ? chunk.getFloat((i & CHUNK_MASK) << 2) : chunk.getDouble((i & CHUNK_MASK) << 3);
+        }
+
+        void set(int i, double value) {
+            MappedByteBuffer chunk = chunks[i >>> CHUNK_SHIFT];
+            if (single) {
+                chunk.putFloat((i & CHUNK_MASK) << 2, (float) value);
+            } else {
+                chunk.putDouble((i & CHUNK_MASK) << 3, value);
+            }
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+
+    private final int size;
+    private final Path file;
+    private final boolean temporary;
+    private final int width;
+    private final AtomicInteger copies = new AtomicInteger();
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+
+    private int front;
+    private Column x;
+    private Column y;
+    private Column theta;
+    private Column cos;
+    private Column sin;
+    private Column nextX;
+    private Column nextY;
+    private Column nextTheta;
+    private Column nextCos;
+    private Column nextSin;
+    private final Column velocity;
+
+    // Creates (or truncates) the backing file, its previous content is not used. single stores floats.
+    // A temporary store deletes the file on close()
+    public MappedParticleStore(String fileName, int size, boolean single, boolean temporary) throws IOException {
+        this(Path.of(fileName), size, single ? Float.BYTES : Double.BYTES, 0, temporary, true);
+    }
+
+    // Maps the image left by close() of a store that was not temporary, the current step is the one it closed with
+    public static MappedParticleStore open(String fileName) throws IOException {
+        Path file = Path.of(fileName);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), HEADER_BYTES));
+            header.order(ByteOrder.nativeOrder());
+            byte[] magic = new byte[MAGIC.length];
+            if (header.remaining() == HEADER_BYTES) {
+                header.get(magic);
+            }
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(fileName + " is not a particle store");
+            }
+            int version = header.getInt();
+            int size = header.getInt();
+            int width = header.getInt();
+            int front = header.getInt();
+            if (version != VERSION || (width != Float.BYTES && width != Double.BYTES) || (front & ~1) != 0) {
+                throw new IOException("Unsupported particle store " + fileName);
+            }
+            if (channel.size() != HEADER_BYTES + (long) COLUMNS * size * width) {
+                throw new IOException("Particle store " + fileName + " truncated");
+            }
+            return new MappedParticleStore(file, size, width, front, false, false);
+        }
+    }
+
+    private MappedParticleStore(Path file, int size, int width, int front, boolean temporary, boolean create)
+            throws IOException {
+        this.size = size;
+        this.file = file;
+        this.temporary = temporary;
+        this.width = width;
+        this.channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        header.order(ByteOrder.nativeOrder());
+        if (create) {
+            header.put(MAGIC).putInt(VERSION).putInt(size).putInt(width).putInt(front);
+        }
+        long columnBytes = (long) size * width;
+        Column[] columns = new Column[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            columns[c] = new Column(channel, HEADER_BYTES + c * columnBytes, size, width);
+        }
+        // buffer 0 holds columns 0-4 and buffer 1 columns 5-9, front says which of them is the current step
+        int current = 5 * front;
+        int next = 5 - current;
+        this.front = front;
+        this.x = columns[current];
+        this.y = columns[current + 1];
+        this.theta = columns[current + 2];
+        this.cos = columns[current + 3];
+        this.sin = columns[current + 4];
+        this.nextX = columns[next];
+        this.nextY = columns[next + 1];
+        this.nextTheta = columns[next + 2];
+        this.nextCos = columns[next + 3];
+        this.nextSin = columns[next + 4];
+        this.velocity = columns[10];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getX(int i) {
+        return x.get(i);
+    }
+
+    @Override
+    public double getY(int i) {
+        return y.get(i);
+    }
+
+    @Override
+    public double getTheta(int i) {
+        return theta.get(i);
+    }
+
+    @Override
+    public double getCos(int i) {
+        return cos.get(i);
+    }
+
+    @Override
+    public double getSin(int i) {
+        return sin.get(i);
+    }
+
+    @Override
+    public double getVelocity(int i) {
+        return velocity.get(i);
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double velocity) {
+        set(i, x, y, theta, Math.cos(theta), Math.sin(theta), velocity);
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double cos, double sin, double velocity) {
+        this.x.set(i, x);
+        this.y.set(i, y);
+        this.theta.set(i, theta);
+        this.cos.set(i, cos);
+        this.sin.set(i, sin);
+        this.velocity.set(i, velocity);
+    }
+
+    @Override
+    public void setNext(int i, double x, double y, double theta, double cos, double sin) {
+        this.nextX.set(i, x);
+        this.nextY.set(i, y);
+        this.nextTheta.set(i, theta);
+        this.nextCos.set(i, cos);
+        this.nextSin.set(i, sin);
+    }
+
+    @Override
+    protected void setVelocity(int i, double velocity) {
+        this.velocity.set(i, velocity);
+    }
+
+    @Override
+    public void swap() {
+        Column aux = x;
+        x = nextX;
+        nextX = aux;
+
+        aux = y;
+        y = nextY;
+        nextY = aux;
+
+        aux = theta;
+        theta = nextTheta;
+        nextTheta = aux;
+
+        aux = cos;
+        cos = nextCos;
+        nextCos = aux;
+
+        aux = sin;
+        sin = nextSin;
+        nextSin = aux;
+
+        front ^= 1;
+        header.putInt(FRONT_OFFSET, front);
+    }
+
+    // Temporary store in a file next to this one (file.copy1, file.copy2, ...)
+    @Override
+    public ParticleStore allocateLike() {
+        String copy = file + ".copy" + copies.incrementAndGet();
+        try {
+            return new MappedParticleStore(copy, size, width == Float.BYTES, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map the particle storage " + copy, e);
+        }
+    }
+
+    // Writes the pages changed so far to the file
+    public void force() {
+        for (Column column : new Column[]{x, y, theta, cos, sin, nextX, nextY, nextTheta, nextCos, nextSin, velocity}) {
+            column.force();
+        }
+        header.force();
+    }
+
+    // The mappings themselves are released by the garbage collector. A temporary file is gone by then, any other one
+    // keeps the current step
+    @Override
+    public void close() throws IOException {
+        if (temporary) {
+            channel.close();
+            Files.deleteIfExists(file);
+        } else {
+            force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+* Two-way channel between two parties of a distributed run (a worker and its neighbor, or a worker and the coordinator).
+* Messages arrive whole and in the order they were sent. InProcessLink connects threads of one JVM,
+* SocketLink processes over TCP or Unix domain sockets.
+* */
+public interface MessageLink extends AutoCloseable {
+    // Sends the bytes between position and limit of message, the buffer can be reused as soon as this returns
+    void send(ByteBuffer message) throws IOException;
+
+    // Waits for the next message from the other end, the buffer is only valid until the next call
+    ByteBuffer receive() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,82 @@
+import java.util.Arrays;
+
+/*
+* Primitive neighbor storage in compressed sparse row form, split in the blocks of ParallelRange.
+* Each block of particles owns its own index array, so blocks can be filled concurrently without sharing anything:
+* the neighbors of particle i are blocks[b][starts[i]] .. blocks[b][starts[i] + counts[i] - 1] with b = i >> BLOCK_SHIFT.
+* Lists are filled particle by particle in increasing order inside a block, arrays are reused between steps
+* and only grow, so in steady state rebuilding the adjacency does not allocate.
+* Every list is kept sorted by index, so the neighbors of a particle come in the same order whichever method found them.
+* */
+public final class NeighborList {
+    private final int[] starts;
+    private final int[] counts;
+    private final int[][] blocks;
+    private final int[] blockNext;
+
+    public NeighborList(int size) {
+        this.starts = new int[size];
+        this.counts = new int[size];
+        int blockCount = ParallelRange.blocks(size);
+        this.blocks = new int[blockCount][];
+        this.blockNext = new int[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            int blockParticles = Math.min(ParallelRange.BLOCK_SIZE, size - (b << ParallelRange.BLOCK_SHIFT));
+            blocks[b] = new int[Math.max(blockParticles, 4) * 4];
+        }
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    public int count(int i) {
+        return counts[i];
+    }
+
+    public int get(int i, int k) {
+        return blocks[i >> ParallelRange.BLOCK_SHIFT][starts[i] + k];
+    }
+
+    // Total number of stored (directed) neighbor entries
+    public long entries() {
+        long entries = 0;
+        for (int next : blockNext) {
+            entries += next;
+        }
+        return entries;
+    }
+
+    // Starts the neighbor list of particle i, must be called for every particle of a block in increasing order
+    public void start(int i) {
+        int b = i >> ParallelRange.BLOCK_SHIFT;
+        if ((i & (ParallelRange.BLOCK_SIZE - 1)) == 0) {
+            blockNext[b] = 0;
+        }
+        starts[i] = blockNext[b];
+        counts[i] = 0;
+    }
+
+    // Appends j to the list of the last started particle of its block
+    public void add(int i, int j) {
+        int b = i >> ParallelRange.BLOCK_SHIFT;
+        int[] block = blocks[b];
+        if (blockNext[b] == block.length) {
+            block = Arrays.copyOf(block, block.length * 2);
+            blocks[b] = block;
+        }
+        block[blockNext[b]++] = j;
+        counts[i]++;
+    }
+
+    // Sorts the list of particle i by index
+    public void sort(int i) {
+        int start = starts[i];
+        Arrays.sort(blocks[i >> ParallelRange.BLOCK_SHIFT], start, start + counts[i]);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(blockNext, 0);
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+* Radial distribution g(r) and orientational correlation C(r) = <cos(theta_i - theta_j)> of the pairs at distance r,
+* binned up to a cutoff and averaged over the states sampled every interval steps (interval, 2 interval, ...).
+* Sampled states are binned with a CellIndex of radius cutoff, with the divisions of the one of the simulation,
+* and every pair within the cutoff is visited once. At the end of every run prefix.correlations.csv gets one table
+* with r (center of the bin), g, C and the number of pairs of each bin. The cutoff must be at most L / 2.
+* A sample visits (cutoff / rc)^2 times the pairs of a step, about as much work as (cutoff / rc)^2 / 4 fused steps.
+* */
+public final class PairCorrelations {
+    static final double DEFAULT_CUTOFF = 5.0;
+    static final double DEFAULT_BIN_WIDTH = 0.05;
+    static final int DEFAULT_INTERVAL = 100;
+    private static final String COLUMNS = "r,g,C,pairs";
+    private static final String ROW_FORMAT = "%.4f,%.6f,%.6f,%.0f";
+
+    private final String prefix;
+    private final double cutoff;
+    private final double binWidth;
+    private final int interval;
+    private final int bins;
+    private final long[] pairs;
+    private final double[] alignment;
+    private final double[] row = new double[4];
+
+    // Current run
+    private String header;
+    private int N;
+    private int L;
+    private CellIndex index;
+    private int samples;
+
+    // A null prefix turns them off
+    public PairCorrelations(String prefix, double cutoff, double binWidth, int interval) {
+        this.prefix = prefix;
+        this.cutoff = cutoff;
+        this.binWidth = binWidth;
+        this.interval = Math.max(interval, 1);
+        // whole bins only, a last one reaching past the cutoff would not get all its pairs
+        this.bins = Math.max((int) Math.floor(cutoff / binWidth + 1e-9), 1);
+        this.pairs = new long[bins];
+        this.alignment = new double[bins];
+    }
+
+    // -Dsimulation.correlations=prefix, with -Dsimulation.correlationCutoff, -Dsimulation.correlationBinWidth
+    // and -Dsimulation.correlationInterval
+    public static PairCorrelations fromSystemProperties() {
+        return new PairCorrelations(System.getProperty("simulation.correlations"),
+                Double.parseDouble(System.getProperty("simulation.correlationCutoff", String.valueOf(DEFAULT_CUTOFF))),
+                Double.parseDouble(System.getProperty("simulation.correlationBinWidth",
+                        String.valueOf(DEFAULT_BIN_WIDTH))),
+                Integer.getInteger("simulation.correlationInterval", DEFAULT_INTERVAL));
+    }
+
+    public boolean isEnabled() {
+        return prefix != null;
+    }
+
+    // Starts a run of N particles in a box of side L described by header, binned with cells of cutoff / divisions
+    public void begin(String header, int N, int L, int divisions) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (cutoff > L / 2.0) {
+            throw new IllegalArgumentException("Correlation cutoff " + cutoff + " is more than L / 2 = " + L / 2.0);
+        }
+        this.header = header;
+        if (index == null || this.N != N || this.L != L || index.getDivisions() != divisions) {
+            index = new CellIndex(N, L, CellIndex.cellsPerSide(L, cutoff, divisions), cutoff, divisions);
+        }
+        this.N = N;
+        this.L = L;
+        samples = 0;
+        Arrays.fill(pairs, 0);
+        Arrays.fill(alignment, 0.0);
+    }
+
+    public boolean isDue(int step) {
+        return isEnabled() && step > 0 && step % interval == 0;
+    }
+
+    // Adds the pairs of the current state of particles
+    public void sample(ParticleStore particles, ParallelRange range) {
+        // sampled states are interval steps apart (and particles may have been reordered), binned from scratch
+        index.invalidate();
+        index.update(particles, range);
+        index.accumulatePairs(particles, binWidth, pairs, alignment, range);
+        samples++;
+    }
+
+    // Ends the run and writes its table, nothing when no state was sampled
+    public void finish() {
+        if (!isEnabled() || samples == 0) {
+            return;
+        }
+        String description = String.format(Locale.ROOT, "%s cutoff=%s bin=%s samples=%d", header, cutoff, binWidth,
+                samples);
+        try (SeriesWriter writer = new SeriesWriter(prefix + ".correlations.csv", row.length, ROW_FORMAT, description,
+                COLUMNS)) {
+            for (int b = 0; b < bins; b++) {
+                double inner = b * binWidth;
+                double outer = (b + 1) * binWidth;
+                // unordered pairs of N uniform particles in the ring, per sampled state
+                double idealPairs = 0.5 * N * (N - 1) * Math.PI * (outer * outer - inner * inner) / ((double) L * L);
+                row[0] = inner + 0.5 * binWidth;
+                row[1] = pairs[b] / (samples * idealPairs);
+                row[2] = pairs[b] == 0 ? Double.NaN : alignment[b] / pairs[b];
+                row[3] = pairs[b];
+                writer.append(row);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        samples = 0;
+    }
+}
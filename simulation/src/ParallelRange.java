@@ -0,0 +1,87 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+* Runs a loop over [0, n) split in fixed size blocks on a ForkJoinPool.
+* Block boundaries do not depend on the number of threads, so anything computed per block
+* (partial sums, neighbor segments) is the same for any pool size.
+* Ranges with the same number of threads share one pool, kept for the life of the JVM (its threads are daemons and
+* idle ones retire), so ranges can be created and dropped freely without leaking threads.
+* */
+public final class ParallelRange {
+    public static final int BLOCK_SHIFT = 10;
+    public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    public interface Body {
+        void run(int from, int to);
+    }
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    public ParallelRange(int threads) {
+        this.threads = Math.max(threads, 1);
+        this.pool = this.threads > 1 ? POOLS.computeIfAbsent(this.threads, ForkJoinPool::new) : null;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public static int blocks(int n) {
+        return (n + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+    }
+
+    public void forEach(int n, Body body) {
+        forEach(n, BLOCK_SIZE, body);
+    }
+
+    // Same with a custom block size, for loops over coarser items than particles (e.g. columns of cells)
+    public void forEach(int n, int blockSize, Body body) {
+        int blocks = (n + blockSize - 1) / blockSize;
+        if (pool == null || blocks <= 1) {
+            for (int b = 0; b < blocks; b++) {
+                runBlock(n, blockSize, b, body);
+            }
+            return;
+        }
+        pool.invoke(new BlockTask(n, blockSize, 0, blocks, body));
+    }
+
+    private static void runBlock(int n, int blockSize, int block, Body body) {
+        int from = block * blockSize;
+        body.run(from, Math.min(from + blockSize, n));
+    }
+
+    // Tasks never leave the pool, RecursiveAction is only Serializable by inheritance
+    @SuppressWarnings("serial")
+    private static final class BlockTask extends RecursiveAction {
+        private final int n;
+        private final int blockSize;
+        private final int firstBlock;
+        private final int lastBlock;
+        private final Body body;
+
+        BlockTask(int n, int blockSize, int firstBlock, int lastBlock, Body body) {
+            this.n = n;
+            this.blockSize = blockSize;
+            this.firstBlock = firstBlock;
+            this.lastBlock = lastBlock;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBlock - firstBlock == 1) {
+                runBlock(n, blockSize, firstBlock, body);
+                return;
+            }
+            int middle = (firstBlock + lastBlock) >>> 1;
+            invokeAll(new BlockTask(n, blockSize, firstBlock, middle, body),
+                    new BlockTask(n, blockSize, middle, lastBlock, body));
+        }
+    }
+}
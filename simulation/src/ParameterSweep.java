@@ -0,0 +1,221 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+* Runs a grid of independent simulations (nu x density x seed) concurrently and writes one row per point
+* to a single table:
+* nu;density;N;seed;samples;mean;variance;error;tau;transient;converged
+* mean and variance are those of the polarization after the first transientSteps steps, error is the error of the mean
+* from a blocking analysis and tau the integrated autocorrelation time in steps.
+* With a target error each point instead stops on its own once it is stationary and its mean is known within that error
+* (see SteadyStateMonitor), the detected transient is reported and converged is 0 for points that hit maxIterations first.
+* Points already present in the table are skipped, so an interrupted sweep can be resumed with the same call. A row cut
+* short by the interruption is dropped from the table and its point is run again.
+* */
+public final class ParameterSweep {
+    private static final String HEADER = "nu;density;N;seed;samples;mean;variance;error;tau;transient;converged";
+    private static final int FIELDS = HEADER.split(";").length;
+
+    private final int L;
+    private final double rc;
+    private final double timeStep;
+    private final int maxIterations;
+    private final int transientSteps;
+    private double[] nus = {1};
+    private double[] densities = {1};
+    private long[] seeds = {1};
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double targetError = 0;
+
+    public ParameterSweep(int L, double rc, double timeStep, int maxIterations, int transientSteps) {
+        this.L = L;
+        this.rc = rc;
+        this.timeStep = timeStep;
+        this.maxIterations = maxIterations;
+        this.transientSteps = transientSteps;
+    }
+
+    public void setNus(double... nus) {
+        this.nus = nus;
+    }
+
+    public void setDensities(double... densities) {
+        this.densities = densities;
+    }
+
+    // Every seed is an independent replica of each (nu, density) point
+    public void setSeeds(long... seeds) {
+        this.seeds = seeds;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    // targetError > 0 replaces the fixed transient and run length by the steady state detection
+    public void setTargetError(double targetError) {
+        this.targetError = Math.max(targetError, 0);
+    }
+
+    private record Point(double nu, double density, int N, long seed) {
+        String key() {
+            return ParameterSweep.key(nu, density, seed);
+        }
+    }
+
+    private record Result(BlockAverage stats, long transientSteps, boolean converged) {
+    }
+
+    private static String key(double nu, double density, long seed) {
+        return String.format(Locale.ROOT, "%.5f;%.5f;%d", nu, density, seed);
+    }
+
+    // Returns the number of points computed in this call
+    public int run(String tableFile) throws IOException {
+        if (Files.exists(Path.of(tableFile))) {
+            dropPartialRow(tableFile);
+        }
+        Set<String> done = readFinishedPoints(tableFile);
+
+        List<Point> points = new ArrayList<>();
+        for (double density : densities) {
+            int N = (int) Math.round(density * L * L);
+            for (double nu : nus) {
+                for (long seed : seeds) {
+                    Point point = new Point(nu, density, N, seed);
+                    if (!done.contains(point.key())) {
+                        points.add(point);
+                    }
+                }
+            }
+        }
+        // Largest systems first so the long jobs do not end up alone at the tail of the sweep
+        points.sort(Comparator.comparingInt(Point::N).reversed());
+
+        boolean newTable = !Files.exists(Path.of(tableFile)) || Files.size(Path.of(tableFile)) == 0;
+        ForkJoinPool pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tableFile, true))) {
+            if (newTable) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.flush();
+            }
+            List<Future<?>> futures = new ArrayList<>(points.size());
+            for (Point point : points) {
+                futures.add(pool.submit(() -> {
+                    writeRow(writer, point, runPoint(point));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sweep interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Sweep point failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return points.size();
+    }
+
+    private Result runPoint(Point point) {
+        // Points already run in parallel, each simulation stays on its own thread
+        Simulation simulation = new Simulation(point.N(), timeStep, maxIterations, L, rc, point.nu(), point.seed(),
+                null, 1);
+        if (targetError > 0) {
+            SteadyStateMonitor monitor = simulation.runUntilSteadyState(targetError);
+            return new Result(monitor.getStatistics(), monitor.getTransientSteps(), monitor.isConverged());
+        }
+        return new Result(simulation.runForPolarizationStatistics(transientSteps), transientSteps, true);
+    }
+
+    // Rows are flushed as soon as a point finishes, so they survive if the sweep is killed
+    private static void writeRow(BufferedWriter writer, Point point, Result result) throws IOException {
+        BlockAverage stats = result.stats();
+        synchronized (writer) {
+            writer.write(String.format(Locale.ROOT, "%.5f;%.5f;%d;%d;%d;%.6f;%.6e;%.6e;%.3f;%d;%d",
+                    point.nu(), point.density(), point.N(), point.seed(),
+                    stats.getCount(), stats.getMean(), stats.getVariance(), stats.getStandardError(),
+                    stats.getAutocorrelationTime(), result.transientSteps(), result.converged() ? 1 : 0));
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    private static Set<String> readFinishedPoints(String tableFile) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(Path.of(tableFile))) {
+            return done;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(tableFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(";");
+                if (line.startsWith("nu;") || !isComplete(parts)) {
+                    continue;
+                }
+                done.add(key(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), Long.parseLong(parts[3])));
+            }
+        }
+        return done;
+    }
+
+    // A row counts as finished only with every field of HEADER present and readable
+    private static boolean isComplete(String[] parts) {
+        if (parts.length != FIELDS) {
+            return false;
+        }
+        try {
+            Double.parseDouble(parts[0]);
+            Double.parseDouble(parts[1]);
+            Integer.parseInt(parts[2]);
+            Long.parseLong(parts[3]);
+            Long.parseLong(parts[4]);
+            for (int k = 5; k < 9; k++) {
+                Double.parseDouble(parts[k]);
+            }
+            Long.parseLong(parts[9]);
+            Integer.parseInt(parts[10]);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Truncates the table after its last newline: a killed sweep may leave a row without one, and the next row
+    // appended would otherwise continue it
+    private static void dropPartialRow(String tableFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(tableFile, "rw")) {
+            long length = file.length();
+            long end = length;
+            while (end > 0) {
+                file.seek(end - 1);
+                if (file.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < length) {
+                file.setLength(end);
+            }
+        }
+    }
+}
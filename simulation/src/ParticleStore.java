@@ -0,0 +1,154 @@
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+
+/*
+* Particle state as seen by the kernels: position, heading (angle and unit vector) and velocity of every particle,
+* with a front buffer for the current step and a back buffer for the next one.
+* HeapParticleStore keeps it in Java arrays, FloatParticleStore in float arrays (Precision.MIXED and FLOAT),
+* MappedParticleStore in memory-mapped files outside the heap.
+* */
+public abstract class ParticleStore {
+    // On-heap store, the default one
+    public static ParticleStore allocate(int size) {
+        return new HeapParticleStore(size);
+    }
+
+    // On-heap store holding the state in the given precision
+    public static ParticleStore allocate(int size, Precision precision) {
+        return precision.isSingle() ? new FloatParticleStore(size) : new HeapParticleStore(size);
+    }
+
+    public static ParticleStore fromParticles(List<Particle> particles) {
+        ParticleStore store = allocate(particles.size());
+        for (int i = 0; i < particles.size(); i++) {
+            Particle p = particles.get(i);
+            store.set(i, p.getCurrentX(), p.getCurrentY(), p.getThetaAngle(), p.getVelocity());
+        }
+        return store;
+    }
+
+    public abstract int size();
+
+    public abstract double getX(int i);
+
+    public abstract double getY(int i);
+
+    public abstract double getTheta(int i);
+
+    public abstract double getCos(int i);
+
+    public abstract double getSin(int i);
+
+    public abstract double getVelocity(int i);
+
+    // Writes the current state of particle i
+    public abstract void set(int i, double x, double y, double theta, double velocity);
+
+    // Same with the unit vector given, e.g. restored from a checkpoint
+    public abstract void set(int i, double x, double y, double theta, double cos, double sin, double velocity);
+
+    // Writes the state of particle i for the next step, visible after swap().
+    // cos and sin must be those of theta, callers that already have them avoid computing them again
+    public abstract void setNext(int i, double x, double y, double theta, double cos, double sin);
+
+    public abstract void swap();
+
+    // Only used to reorder the particles, velocities are otherwise written with set()
+    protected abstract void setVelocity(int i, double velocity);
+
+    public void copyFrom(ParticleStore other) {
+        if (other.size() != size()) {
+            throw new IllegalArgumentException("Store sizes differ: " + other.size() + " != " + size());
+        }
+        for (int i = 0; i < size(); i++) {
+            set(i, other.getX(i), other.getY(i), other.getTheta(i), other.getCos(i), other.getSin(i), other.getVelocity(i));
+        }
+    }
+
+    // Copies other in a different order: particle i of other becomes particle ids[i] of this store
+    public void scatterFrom(ParticleStore other, int[] ids) {
+        if (other.size() != size()) {
+            throw new IllegalArgumentException("Store sizes differ: " + other.size() + " != " + size());
+        }
+        for (int i = 0; i < size(); i++) {
+            set(ids[i], other.getX(i), other.getY(i), other.getTheta(i), other.getCos(i), other.getSin(i),
+                    other.getVelocity(i));
+        }
+    }
+
+    // Reorders the particles in place: particle order[k] moves to index k. The current step is written into the back
+    // buffer and swapped in, the velocities are moved along the cycles of the permutation (visited is scratch space of
+    // size() bits)
+    public void permute(int[] order, BitSet visited) {
+        for (int k = 0; k < size(); k++) {
+            int from = order[k];
+            setNext(k, getX(from), getY(from), getTheta(from), getCos(from), getSin(from));
+        }
+        swap();
+
+        visited.clear();
+        for (int start = 0; start < size(); start++) {
+            if (visited.get(start)) {
+                continue;
+            }
+            double first = getVelocity(start);
+            int k = start;
+            while (order[k] != start) {
+                setVelocity(k, getVelocity(order[k]));
+                visited.set(k);
+                k = order[k];
+            }
+            setVelocity(k, first);
+            visited.set(k);
+        }
+    }
+
+    // Empty store of the same size, precision and backing as this one, for exact copies of its state that should not
+    // cost more heap than it does
+    public ParticleStore allocateLike() {
+        return allocate(size());
+    }
+
+    // On-heap copy of the current step
+    public ParticleStore copy() {
+        ParticleStore copy = allocate(size());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    public Particle toParticle(int i) {
+        return new Particle(getX(i), getY(i), getVelocity(i), getTheta(i), i);
+    }
+
+    // Read only view of the current step, particles are built on access
+    public List<Particle> asList() {
+        return new AbstractList<>() {
+            @Override
+            public Particle get(int index) {
+                return toParticle(index);
+            }
+
+            @Override
+            public int size() {
+                return ParticleStore.this.size();
+            }
+        };
+    }
+
+    // Same in the order of the original ids, the particle with id k is stored at index slotOf[k]
+    public List<Particle> asList(int[] slotOf) {
+        return new AbstractList<>() {
+            @Override
+            public Particle get(int id) {
+                int i = slotOf[id];
+                return new Particle(getX(i), getY(i), getVelocity(i), getTheta(i), id);
+            }
+
+            @Override
+            public int size() {
+                return ParticleStore.this.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+/*
+* Philox4x32-10 (Salmon et al., "Parallel random numbers: as easy as 1, 2, 3", SC 2011), the counter-based generator
+* of Random123 and cuRAND. The 128 bit counter is (particle, step, 0, 0), or (particle, step, other, 1) for the numbers
+* of pairs, the 64 bit key is the seed, and the first two output words make the 53 bits of the double.
+* Slower than SplitMixRng but with published statistical guarantees (passes BigCrush with every key).
+* */
+public final class PhiloxRng implements CounterRng {
+    static final int ID = 1;
+    static final String NAME = "philox";
+    private static final long MULTIPLIER_0 = 0xD2511F53L;
+    private static final long MULTIPLIER_1 = 0xCD9E8D57L;
+    private static final int WEYL_0 = 0x9E3779B9;
+    private static final int WEYL_1 = 0xBB67AE85;
+    private static final long MASK = 0xFFFFFFFFL;
+
+    // The 10 rounds on counter (c0, c1, c2, c3) with key (k0, k1), returns the first two output words as hi << 32 | lo
+    static long block(int c0, int c1, int c2, int c3, int k0, int k1) {
+        for (int round = 0; round < 10; round++) {
+            long product0 = MULTIPLIER_0 * (c0 & MASK);
+            long product1 = MULTIPLIER_1 * (c2 & MASK);
+            int next0 = (int) (product1 >>> 32) ^ c1 ^ k0;
+            int next2 = (int) (product0 >>> 32) ^ c3 ^ k1;
+            c1 = (int) product1;
+            c3 = (int) product0;
+            c0 = next0;
+            c2 = next2;
+            k0 += WEYL_0;
+            k1 += WEYL_1;
+        }
+        return (long) c0 << 32 | (c1 & MASK);
+    }
+
+    @Override
+    public double uniform(long seed, int step, int particle) {
+        return (block(particle, step, 0, 0, (int) seed, (int) (seed >>> 32)) >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public double uniform(long seed, int step, int particle, int other) {
+        return (block(particle, step, other, 1, (int) seed, (int) (seed >>> 32)) >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+}
@@ -0,0 +1,73 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+* Renders every frame to its own PNG, <prefix>_<step>.png, for assembling a video (e.g. ffmpeg -i prefix_%06d.png).
+* Only needs an off-screen image, so it also works headless (-Djava.awt.headless=true).
+* The seed and the generator go into tEXt chunks of every file (e.g. identify -verbose prefix_000000.png).
+* */
+public final class PngFrameWriter implements TrajectoryWriter {
+    private final String prefix;
+    private final int L;
+    private static final String PNG_METADATA = "javax_imageio_png_1.0";
+
+    private final BufferedImage image;
+    private final ImageWriter writer;
+    private final IIOMetadata metadata;
+
+    public PngFrameWriter(String prefix, int L, int size, long seed, String rng) throws IOException {
+        this.prefix = prefix;
+        this.L = L;
+        this.image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        this.writer = ImageIO.getImageWritersByFormatName("png").next();
+        this.metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+
+        IIOMetadataNode text = new IIOMetadataNode("tEXt");
+        text.appendChild(textEntry("Seed", Long.toString(seed)));
+        text.appendChild(textEntry("Generator", rng));
+        IIOMetadataNode root = new IIOMetadataNode(PNG_METADATA);
+        root.appendChild(text);
+        metadata.mergeTree(PNG_METADATA, root);
+    }
+
+    private static IIOMetadataNode textEntry(String keyword, String value) {
+        IIOMetadataNode entry = new IIOMetadataNode("tEXtEntry");
+        entry.setAttribute("keyword", keyword);
+        entry.setAttribute("value", value);
+        return entry;
+    }
+
+    @Override
+    public void writeFrame(int step, ParticleStore particles) throws IOException {
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            FrameRenderer.draw(g, particles, L, image.getWidth(), image.getHeight());
+        } finally {
+            g.dispose();
+        }
+        File file = new File(String.format("%s_%06d.png", prefix, step));
+        // the stream writes over an existing file without truncating it
+        file.delete();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(output);
+            writer.write(new IIOImage(image, null, metadata));
+        }
+    }
+
+    @Override
+    public void close() {
+        // every frame is already a complete file
+        writer.dispose();
+    }
+}
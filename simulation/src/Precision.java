@@ -0,0 +1,39 @@
+import java.util.Locale;
+
+/*
+* Floating point precision of the engine.
+* DOUBLE keeps everything in 64 bits. MIXED stores the particle state and the binned positions of the cell index in
+* 32 bits (half the memory and bandwidth, twice the lanes in the vector distance tests) and adds up the alignment sums
+* and the polarization in 64 bits. FLOAT also adds them up in 32 bits.
+* Distance tests, headings and positions are then rounded to float: trajectories of a seed differ from the double
+* ones after a few steps, only the statistics of the order parameter should agree (see PrecisionCheck).
+* */
+public enum Precision {
+    DOUBLE, MIXED, FLOAT;
+
+    // Whether positions and headings are stored as floats
+    public boolean isSingle() {
+        return this != DOUBLE;
+    }
+
+    // Recorded in checkpoints
+    public int id() {
+        return ordinal();
+    }
+
+    public static Precision forId(int id) {
+        Precision[] values = values();
+        if (id < 0 || id >= values.length) {
+            throw new IllegalArgumentException("Unknown precision " + id);
+        }
+        return values[id];
+    }
+
+    public static Precision forName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown precision " + name, e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.Locale;
+
+/*
+* Validation of the single precision modes against the double engine: for every nu the same seed is run in
+* DOUBLE, MIXED and FLOAT, and the polarization series of each mode is compared with the double one.
+* Trajectories part after a few steps (rounding differs from the first distance test), so agreement is only expected
+* for the statistics. Per mode and nu one row:
+* nu;precision;samples;mean;error;tau;delta;z;divergence;rms_diff;ms_per_step;ok
+* mean, error and tau are those of the polarization after transientSteps steps (blocking analysis, see BlockAverage),
+* delta the difference of the mean with the double one and z that difference over the combined error.
+* divergence is the first step whose polarization differs from the double one by more than DIVERGENCE (-1 if none),
+* rms_diff the root mean square of that difference over all the steps: the drift of the series.
+* ok is 0 when |z| > MAX_Z, a difference of the means the errors do not explain.
+* */
+public final class PrecisionCheck {
+    private static final String HEADER = "nu;precision;samples;mean;error;tau;delta;z;divergence;rms_diff;ms_per_step;ok";
+    static final double DIVERGENCE = 1e-3;
+    static final double MAX_Z = 3.0;
+
+    private final int N;
+    private final double timeStep;
+    private final int steps;
+    private final int L;
+    private final double rc;
+    private final int transientSteps;
+    private final long seed;
+    private boolean fusedAlignment = false;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public PrecisionCheck(int N, double timeStep, int steps, int L, double rc, int transientSteps, long seed) {
+        if (transientSteps >= steps) {
+            throw new IllegalArgumentException("Transient of " + transientSteps + " steps leaves no sample of "
+                    + steps + " steps");
+        }
+        this.N = N;
+        this.timeStep = timeStep;
+        this.steps = steps;
+        this.L = L;
+        this.rc = rc;
+        this.transientSteps = transientSteps;
+        this.seed = seed;
+    }
+
+    // Fused steps check the alignment sums of the cell index, list steps those of the neighbor lists
+    public void setFusedAlignment(boolean fusedAlignment) {
+        this.fusedAlignment = fusedAlignment;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    private record Run(double[] series, BlockAverage stats, double msPerStep) {
+    }
+
+    // Prints the rows of every nu, returns false if any of them is not ok
+    public boolean run(double... nus) {
+        System.out.println(HEADER);
+        boolean ok = true;
+        for (double nu : nus) {
+            Run reference = run(nu, Precision.DOUBLE);
+            for (Precision precision : Precision.values()) {
+                Run run = precision == Precision.DOUBLE ? reference : run(nu, precision);
+                ok &= report(nu, precision, run, reference);
+            }
+        }
+        return ok;
+    }
+
+    private Run run(double nu, Precision precision) {
+        Simulation simulation = new Simulation(N, timeStep, steps, L, rc, nu, seed);
+        simulation.setThreads(threads);
+        simulation.setFusedAlignment(fusedAlignment);
+        simulation.setPrecision(precision);
+        long start = System.nanoTime();
+        double[] series = simulation.runForPolarizationSeries();
+        double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+        BlockAverage stats = new BlockAverage();
+        for (int i = transientSteps; i < steps; i++) {
+            stats.add(series[i]);
+        }
+        return new Run(series, stats, msPerStep);
+    }
+
+    private boolean report(double nu, Precision precision, Run run, Run reference) {
+        int divergence = -1;
+        double squares = 0.0;
+        for (int i = 0; i < steps; i++) {
+            double difference = run.series()[i] - reference.series()[i];
+            if (divergence < 0 && Math.abs(difference) > DIVERGENCE) {
+                divergence = i + 1;
+            }
+            squares += difference * difference;
+        }
+        BlockAverage stats = run.stats();
+        double delta = stats.getMean() - reference.stats().getMean();
+        double error = Math.hypot(stats.getStandardError(), reference.stats().getStandardError());
+        // the double run against itself, and runs too short for an error estimate, have nothing to compare
+        double z = delta == 0.0 ? 0.0 : delta / error;
+        boolean ok = Math.abs(z) <= MAX_Z;
+        System.out.println(String.format(Locale.ROOT, "%.5f;%s;%d;%.6f;%.2e;%.2f;%.2e;%.2f;%d;%.2e;%.3f;%d",
+                nu, precision.name().toLowerCase(Locale.ROOT), stats.getCount(), stats.getMean(),
+                stats.getStandardError(), stats.getAutocorrelationTime(), delta, z, divergence,
+                Math.sqrt(squares / steps), run.msPerStep(), ok ? 1 : 0));
+        return ok;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 9) {
+            System.err.println("Usage: java PrecisionCheck N timeStep steps L rc transientSteps seed lists|fused "
+                    + "nu [nu ...]");
+            System.exit(1);
+        }
+        PrecisionCheck check = new PrecisionCheck(Integer.parseInt(args[0]), Double.parseDouble(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), Double.parseDouble(args[4]),
+                Integer.parseInt(args[5]), Long.parseLong(args[6]));
+        check.setFusedAlignment(args[7].equals("fused"));
+        double[] nus = new double[args.length - 8];
+        for (int k = 0; k < nus.length; k++) {
+            nus[k] = Double.parseDouble(args[8 + k]);
+        }
+        if (!check.run(nus)) {
+            System.exit(2);
+        }
+    }
+}
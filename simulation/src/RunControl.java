@@ -0,0 +1,58 @@
+/*
+* Pause, resume and cancel of a run from another thread, plus its progress.
+* The run calls awaitRunning() before every step.
+* */
+public final class RunControl {
+    private boolean paused = false;
+    private volatile boolean cancelled = false;
+    private volatile int step = 0;
+    private volatile int totalSteps = 0;
+
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Blocks while paused, returns false once the run has to stop
+    public synchronized boolean awaitRunning() {
+        while (paused && !cancelled) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !cancelled;
+    }
+
+    public void setProgress(int step, int totalSteps) {
+        this.step = step;
+        this.totalSteps = totalSteps;
+    }
+
+    public int getStep() {
+        return step;
+    }
+
+    public int getTotalSteps() {
+        return totalSteps;
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import jdk.jfr.EventType;
+
+/*
+* Instrumentation of the hot path of a Simulation: time of every phase of every step, neighbor count histogram,
+* pair tests of the neighbor search (candidates against pairs within rc), and allocations and collections of the run.
+* With a file prefix every run appends a row per step to prefix.steps.csv and a summary line to prefix.summary.json
+* (one JSON object per run), with the notes the run added about itself. Steps are also reported as StepEvent to Flight Recorder when a recording enables them.
+* When neither is on, a phase costs one branch and a step one check of the event type, nothing is allocated.
+* */
+public final class RunMetrics {
+    // Asked every step whether a recording has StepEvent on, an event object is only built when one does
+    private static final EventType STEP_EVENT = EventType.getEventType(StepEvent.class);
+
+    public enum Phase {
+        REORDER, BINNING, NEIGHBORS, UPDATE, POLARIZATION, CLUSTERS, CORRELATIONS, OUTPUT, CHECKPOINT;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    // Neighbor counts from this one up share the last bin of the histogram
+    private static final int HISTOGRAM_BINS = 256;
+    private static final String COLUMNS = "step,reorder_ns,binning_ns,neighbors_ns,update_ns,polarization_ns,"
+            + "clusters_ns,correlations_ns,output_ns,checkpoint_ns,mean_neighbors,max_neighbors,pair_tests,accepted_pairs";
+    private static final String ROW_FORMAT = "%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.0f,%.3f,%.0f,%.0f,%.0f";
+
+    private final String prefix;
+    private String header;
+    private SeriesWriter steps;
+    private final double[] row = new double[PHASES.length + 5];
+
+    // Current step, timing is on when this step is written anywhere
+    private StepEvent event;
+    private boolean timing = false;
+    private int iteration;
+    private final long[] stepNanos = new long[PHASES.length];
+    private long stepParticles;
+    private long stepNeighbors;
+    private int stepMaxNeighbors;
+    private long stepPairTests;
+    private long stepAcceptedPairs;
+
+    // Totals of the run
+    private long runSteps;
+    private long runStart;
+    private final long[] totalNanos = new long[PHASES.length];
+    private final long[] maxNanos = new long[PHASES.length];
+    private final long[] histogram = new long[HISTOGRAM_BINS];
+    private long totalParticles;
+    private long totalNeighbors;
+    private int maxNeighbors;
+    private long totalPairTests;
+    private long totalAcceptedPairs;
+    private long allocatedAtStart;
+    private long collectionsAtStart;
+    private long collectionMillisAtStart;
+    // Facts about the run other than timings (e.g. the outcome of steady state detection), by name
+    private final Map<String, String> notes = new LinkedHashMap<>();
+
+    // A null prefix writes no files, steps then only go to Flight Recorder
+    public RunMetrics(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public boolean isEnabled() {
+        return prefix != null;
+    }
+
+    // Starts a run described by header (the first line of its rows)
+    public void begin(String header) {
+        this.header = header;
+        event = null;
+        timing = false;
+        runSteps = 0;
+        Arrays.fill(totalNanos, 0);
+        Arrays.fill(maxNanos, 0);
+        Arrays.fill(histogram, 0);
+        totalParticles = 0;
+        totalNeighbors = 0;
+        maxNeighbors = 0;
+        totalPairTests = 0;
+        totalAcceptedPairs = 0;
+        notes.clear();
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            steps = new SeriesWriter(prefix + ".steps.csv", row.length, ROW_FORMAT, header, COLUMNS);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        allocatedAtStart = allocatedBytes();
+        collectionsAtStart = collections();
+        collectionMillisAtStart = collectionMillis();
+        runStart = System.nanoTime();
+    }
+
+    // Adds a fact about the current run to its summary, a later note with the same name replaces it.
+    // Dropped when no files are written
+    public void note(String name, String value) {
+        if (isEnabled()) {
+            notes.put(name, value);
+        }
+    }
+
+    // Ends the previous step, everything measured until the next call belongs to this one
+    public void beginStep(int iteration) {
+        endStep();
+        this.iteration = iteration;
+        boolean recorded = STEP_EVENT.isEnabled();
+        timing = isEnabled() || recorded;
+        if (recorded) {
+            event = new StepEvent();
+            event.begin();
+        }
+    }
+
+    // Whether the current step is measured, statistics that need work of their own are skipped otherwise
+    public boolean isTiming() {
+        return timing;
+    }
+
+    // Start time to pass to end(), 0 when the step is not measured
+    public long start() {
+        return timing ? System.nanoTime() : 0L;
+    }
+
+    public void end(Phase phase, long start) {
+        if (timing) {
+            stepNanos[phase.ordinal()] += System.nanoTime() - start;
+        }
+    }
+
+    // Neighbors of one particle, without itself
+    public void addNeighborCount(int count) {
+        histogram[Math.min(count, HISTOGRAM_BINS - 1)]++;
+        stepParticles++;
+        stepNeighbors += count;
+        stepMaxNeighbors = Math.max(stepMaxNeighbors, count);
+    }
+
+    // Distance tests of the neighbor search and how many of them were within rc
+    public void addPairTests(long tests, long accepted) {
+        stepPairTests += tests;
+        stepAcceptedPairs += accepted;
+    }
+
+    private void endStep() {
+        if (!timing) {
+            return;
+        }
+        runSteps++;
+        for (int p = 0; p < PHASES.length; p++) {
+            totalNanos[p] += stepNanos[p];
+            maxNanos[p] = Math.max(maxNanos[p], stepNanos[p]);
+        }
+        totalParticles += stepParticles;
+        totalNeighbors += stepNeighbors;
+        maxNeighbors = Math.max(maxNeighbors, stepMaxNeighbors);
+        totalPairTests += stepPairTests;
+        totalAcceptedPairs += stepAcceptedPairs;
+        double meanNeighbors = stepParticles == 0 ? 0.0 : (double) stepNeighbors / stepParticles;
+
+        if (steps != null) {
+            row[0] = iteration;
+            for (int p = 0; p < PHASES.length; p++) {
+                row[p + 1] = stepNanos[p];
+            }
+            row[PHASES.length + 1] = meanNeighbors;
+            row[PHASES.length + 2] = stepMaxNeighbors;
+            row[PHASES.length + 3] = stepPairTests;
+            row[PHASES.length + 4] = stepAcceptedPairs;
+            try {
+                steps.append(row);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.iteration = iteration;
+                event.particles = (int) stepParticles;
+                event.reorder = stepNanos[Phase.REORDER.ordinal()];
+                event.binning = stepNanos[Phase.BINNING.ordinal()];
+                event.neighbors = stepNanos[Phase.NEIGHBORS.ordinal()];
+                event.update = stepNanos[Phase.UPDATE.ordinal()];
+                event.polarization = stepNanos[Phase.POLARIZATION.ordinal()];
+                event.clusters = stepNanos[Phase.CLUSTERS.ordinal()];
+                event.correlations = stepNanos[Phase.CORRELATIONS.ordinal()];
+                event.output = stepNanos[Phase.OUTPUT.ordinal()];
+                event.checkpoint = stepNanos[Phase.CHECKPOINT.ordinal()];
+                event.meanNeighbors = meanNeighbors;
+                event.maxNeighbors = stepMaxNeighbors;
+                event.pairTests = stepPairTests;
+                event.acceptedPairs = stepAcceptedPairs;
+                event.commit();
+            }
+        }
+
+        Arrays.fill(stepNanos, 0);
+        stepParticles = 0;
+        stepNeighbors = 0;
+        stepMaxNeighbors = 0;
+        stepPairTests = 0;
+        stepAcceptedPairs = 0;
+        event = null;
+        timing = false;
+    }
+
+    // Ends the run, writes its summary and prints a line about it
+    public void finish() {
+        endStep();
+        if (!isEnabled() || steps == null) {
+            return;
+        }
+        long wallNanos = System.nanoTime() - runStart;
+        try {
+            steps.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        steps = null;
+        long allocated = allocatedAtStart < 0 ? -1 : allocatedBytes() - allocatedAtStart;
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(prefix + ".summary.json", true))) {
+            writer.write(toJson(wallNanos, allocated));
+            writer.newLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println(summary(wallNanos, allocated));
+    }
+
+    private String toJson(long wallNanos, long allocated) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"header\":").append(quote(header));
+        json.append(",\"steps\":").append(runSteps);
+        json.append(",\"wall_ns\":").append(wallNanos);
+        json.append(",\"phases\":{");
+        long measured = 0;
+        for (int p = 0; p < PHASES.length; p++) {
+            measured += totalNanos[p];
+            json.append(p == 0 ? "" : ",").append('"').append(PHASES[p].label).append("\":{")
+                    .append("\"total_ns\":").append(totalNanos[p])
+                    .append(",\"mean_ns\":").append(runSteps == 0 ? 0 : totalNanos[p] / runSteps)
+                    .append(",\"max_ns\":").append(maxNanos[p]).append('}');
+        }
+        json.append("},\"other_ns\":").append(Math.max(wallNanos - measured, 0));
+        json.append(String.format(Locale.ROOT, ",\"mean_neighbors\":%.4f",
+                totalParticles == 0 ? 0.0 : (double) totalNeighbors / totalParticles));
+        json.append(",\"max_neighbors\":").append(maxNeighbors);
+        int bins = HISTOGRAM_BINS;
+        while (bins > 0 && histogram[bins - 1] == 0) {
+            bins--;
+        }
+        json.append(",\"neighbor_histogram\":[");
+        for (int b = 0; b < bins; b++) {
+            json.append(b == 0 ? "" : ",").append(histogram[b]);
+        }
+        json.append("],\"pair_tests\":").append(totalPairTests);
+        json.append(",\"accepted_pairs\":").append(totalAcceptedPairs);
+        json.append(String.format(Locale.ROOT, ",\"hit_ratio\":%.4f", hitRatio()));
+        json.append(",\"allocated_bytes\":").append(allocated);
+        json.append(",\"gc_count\":").append(collections() - collectionsAtStart);
+        json.append(",\"gc_time_ms\":").append(collectionMillis() - collectionMillisAtStart);
+        json.append(",\"notes\":{");
+        String separator = "";
+        for (Map.Entry<String, String> note : notes.entrySet()) {
+            json.append(separator).append(quote(note.getKey())).append(':').append(quote(note.getValue()));
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private String summary(long wallNanos, long allocated) {
+        StringBuilder phases = new StringBuilder();
+        for (int p = 0; p < PHASES.length; p++) {
+            if (totalNanos[p] > 0) {
+                phases.append(String.format(Locale.ROOT, ", %s %.1f%%", PHASES[p].label, 100.0 * totalNanos[p] / wallNanos));
+            }
+        }
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "Metrics: %d steps, %.3f ms/step%s, hit ratio %.3f, %.1f MB allocated",
+                runSteps, runSteps == 0 ? 0.0 : wallNanos / 1e6 / runSteps, phases, hitRatio(), allocated / 1e6));
+        for (Map.Entry<String, String> note : notes.entrySet()) {
+            line.append("\n  ").append(note.getKey()).append(": ").append(note.getValue());
+        }
+        return line.toString();
+    }
+
+    private double hitRatio() {
+        return totalPairTests == 0 ? 0.0 : (double) totalAcceptedPairs / totalPairTests;
+    }
+
+    // Heap allocated by every thread since the JVM started, -1 when the JVM does not count it
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean counting && counting.isThreadAllocatedMemorySupported()
+                && counting.isThreadAllocatedMemoryEnabled()) {
+            return counting.getTotalThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(collector.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,53 @@
+import java.nio.ByteBuffer;
+
+/*
+* Running mean and variance of a series (Welford's algorithm), no samples are stored.
+* */
+public final class RunningStats {
+    // Size of the state saved by writeTo()
+    static final int BYTES = Long.BYTES + 2 * Double.BYTES;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    public void clear() {
+        count = 0;
+        mean = 0.0;
+        m2 = 0.0;
+    }
+
+    // Saves the accumulators, e.g. into a checkpoint
+    void writeTo(ByteBuffer buffer) {
+        buffer.putLong(count);
+        buffer.putDouble(mean);
+        buffer.putDouble(m2);
+    }
+
+    // Restores the accumulators saved by writeTo()
+    void readFrom(ByteBuffer buffer) {
+        count = buffer.getLong();
+        mean = buffer.getDouble();
+        m2 = buffer.getDouble();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    // Sample variance, 0 with less than two samples
+    public double getVariance() {
+        return count > 1 ? m2 / (count - 1) : 0.0;
+    }
+}
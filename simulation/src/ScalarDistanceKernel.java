@@ -0,0 +1,82 @@
+/*
+* Plain Java implementation of DistanceKernel, used when the Vector API is not available.
+* */
+public final class ScalarDistanceKernel implements DistanceKernel {
+    @Override
+    public int collect(double x, double y, double[] xs, double[] ys, int from, int to, double L, double rc2, int[] out) {
+        int found = 0;
+        for (int b = from; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                out[found++] = b;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void accumulate(int a, double[] xs, double[] ys, double[] cos, double[] sin,
+                           double[] cosSum, double[] sinSum, int[] counts, int from, int to, double L, double rc2) {
+        double x = xs[a];
+        double y = ys[a];
+        for (int b = from; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public int collect(float x, float y, float[] xs, float[] ys, int from, int to, float L, float rc2, int[] out) {
+        int found = 0;
+        for (int b = from; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                out[found++] = b;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void accumulate(int a, float[] xs, float[] ys, double[] cos, double[] sin,
+                           double[] cosSum, double[] sinSum, int[] counts, int from, int to, float L, float rc2) {
+        float x = xs[a];
+        float y = ys[a];
+        for (int b = from; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public void accumulate(int a, float[] xs, float[] ys, float[] cos, float[] sin,
+                           float[] cosSum, float[] sinSum, int[] counts, int from, int to, float L, float rc2) {
+        float x = xs[a];
+        float y = ys[a];
+        for (int b = from; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+* Scalar time series (one row of values per step) written in batches on a background thread.
+* Rows are appended to pre-allocated batches, a batch is formatted and written only once it is full.
+* Every run starts with a "# " line describing it (seed, generator and parameters), files appended by several runs
+* have one before the rows of each, followed by a line of column names when the writer has them.
+* */
+public final class SeriesWriter extends AsyncOutput<SeriesWriter.Batch> {
+    private static final int SLOTS = 4;
+    private static final int ROWS_PER_BATCH = 4096;
+
+    private final BufferedWriter writer;
+    private final String rowFormat;
+    private final int columns;
+    private Batch current;
+
+    static final class Batch {
+        private final double[] values;
+        private int rows;
+
+        Batch(int columns) {
+            this.values = new double[ROWS_PER_BATCH * columns];
+        }
+    }
+
+    // rowFormat formats one row, e.g. "%.5f" or "%.5f;%.5f"
+    public SeriesWriter(String fileName, int columns, String rowFormat, String header) throws IOException {
+        this(fileName, columns, rowFormat, header, null);
+    }
+
+    public SeriesWriter(String fileName, int columns, String rowFormat, String header, String columnNames)
+            throws IOException {
+        super("series-writer", batches(columns));
+        this.writer = new BufferedWriter(new FileWriter(fileName, true));
+        writer.write("# " + header + "\n");
+        if (columnNames != null) {
+            writer.write(columnNames + "\n");
+        }
+        this.rowFormat = rowFormat + "\n";
+        this.columns = columns;
+        startWriter();
+    }
+
+    private static Batch[] batches(int columns) {
+        Batch[] batches = new Batch[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            batches[i] = new Batch(columns);
+        }
+        return batches;
+    }
+
+    public void append(double value) throws IOException {
+        Batch batch = batch();
+        batch.values[batch.rows * columns] = value;
+        rowAdded(batch);
+    }
+
+    public void append(double first, double second) throws IOException {
+        Batch batch = batch();
+        batch.values[batch.rows * columns] = first;
+        batch.values[batch.rows * columns + 1] = second;
+        rowAdded(batch);
+    }
+
+    // Row of every column at once, row.length must be the number of columns
+    public void append(double[] row) throws IOException {
+        Batch batch = batch();
+        System.arraycopy(row, 0, batch.values, batch.rows * columns, columns);
+        rowAdded(batch);
+    }
+
+    private Batch batch() throws IOException {
+        if (current == null) {
+            current = acquire();
+            current.rows = 0;
+        }
+        return current;
+    }
+
+    private void rowAdded(Batch batch) throws IOException {
+        batch.rows++;
+        if (batch.rows == ROWS_PER_BATCH) {
+            publish(batch);
+            current = null;
+        }
+    }
+
+    @Override
+    protected void write(Batch batch) throws IOException {
+        Object[] row = new Object[columns];
+        for (int r = 0; r < batch.rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                row[c] = batch.values[r * columns + c];
+            }
+            writer.write(String.format(Locale.ROOT, rowFormat, row));
+        }
+        writer.flush();
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        writer.close();
+    }
+
+    // Publishes the last partial batch before closing
+    @Override
+    public void close() throws IOException {
+        if (current != null && current.rows > 0) {
+            publish(current);
+        }
+        current = null;
+        super.close();
+    }
+}
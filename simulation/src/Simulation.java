@@ -1,16 +1,17 @@
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /*
 * Models each simulation
@@ -18,8 +19,69 @@ import java.util.stream.Collectors;
 * */
 
 public final class Simulation {
-    private List<Particle> particles;
-    private List<Particle> initialSnapshot;
+    private static final int PNG_SIZE = 800;
+    // Speed of every generated particle
+    static final double VELOCITY = 0.03;
+    // Reorder interval that lets the particles cross about one cell between reorderings
+    public static final int AUTO_REORDER = -1;
+    // Cell divisions picked by timing the neighbor search with each of 1 .. MAX_CELL_DIVISIONS
+    public static final int AUTO_CELL_DIVISIONS = 0;
+    private static final int MAX_CELL_DIVISIONS = 3;
+    private static final int TUNING_ROUNDS = 3;
+    private static final int DEFAULT_CLUSTER_INTERVAL = 10;
+    private ParticleStore particles;
+    private ParticleStore initialSnapshot;
+    private NeighborList neighbors;
+    private CellIndex cellIndex;
+    private ParallelRange range;
+    private double[] partialVelocityX;
+    private double[] partialVelocityY;
+    private long seed;
+    private CounterRng rng = new SplitMixRng();
+    // Precision of the particle state, the cell index and the alignment sums, -Dsimulation.precision=mixed or float
+    private Precision precision = Precision.forName(System.getProperty("simulation.precision", "double"));
+    // Random numbers of the current step by index, filled a block at a time
+    private double[] uniforms;
+    private int frameInterval = 1;
+    private double verletSkin = 0;
+    private VerletList verletList;
+    private boolean fusedAlignment = false;
+    private double[] alignmentCos;
+    private double[] alignmentSin;
+    private int[] alignmentCount;
+    private int[] voterChoice;
+    private double targetError = 0;
+    private String checkpointFile;
+    private int checkpointInterval = 0;
+    // Steps already done when the next run starts, only non zero after restoring a checkpoint
+    private int startIteration = 0;
+    // Steady state detection of the polarization run in progress, saved with its checkpoints.
+    // After restore() the checkpointed one, which the next polarization run continues
+    private SteadyStateMonitor monitor;
+    // Particles are stored by position along a space filling curve when reordering is on:
+    // the particle at index i has original id ids[i], and the one with id k is at index slotOf[k].
+    // Output and noise always go by id
+    private int[] ids;
+    private int[] slotOf;
+    private int reorderInterval = 0;
+    private int cellDivisions = 1;
+    private boolean cellsTuned = false;
+    // Divisions chosen by the tuner and the time of each, a note of the runs that use them
+    private String cellTuning;
+    private int[] curveRanks;
+    private int[] reorderKeys;
+    private int[] reorderOrder;
+    private BitSet reorderVisited;
+    // Phase timers and neighbor statistics, off unless -Dsimulation.metrics=prefix or setMetrics() give a prefix
+    private RunMetrics metrics = new RunMetrics(System.getProperty("simulation.metrics"));
+    // Cluster statistics every -Dsimulation.clusterInterval steps, off unless -Dsimulation.clusters=prefix
+    // or setClusterAnalysis() give a prefix
+    private ClusterAnalysis clusters = new ClusterAnalysis(System.getProperty("simulation.clusters"),
+            Integer.getInteger("simulation.clusterInterval", DEFAULT_CLUSTER_INTERVAL));
+    // g(r) and C(r) of sampled states, off unless -Dsimulation.correlations=prefix or setPairCorrelations() give a prefix
+    private PairCorrelations correlations = PairCorrelations.fromSystemProperties();
+    // Memory-mapped file holding the particle state, null keeps it on the heap
+    private final String storageFile;
     private int N;
     private double timeStep;
     private int maxIterations;
@@ -30,6 +92,27 @@ public final class Simulation {
     private double density;
 
     public Simulation(int N, double timeStep, int maxIterations, int L, double radius, double nu) {
+        this(N, timeStep, maxIterations, L, radius, nu, new Random().nextLong());
+    }
+
+    public Simulation(int N, double timeStep, int maxIterations, int L, double radius, double nu, long seed) {
+        this(N, timeStep, maxIterations, L, radius, nu, seed, null);
+    }
+
+    // With a storageFile the particle state lives in that memory-mapped file (and the initial snapshot in the temporary
+    // storageFile.initial) instead of the heap, for systems too large for it. closeStorage() releases both files.
+    // The search structures and output copies stay on the heap, see MappedParticleStore
+    public Simulation(int N, double timeStep, int maxIterations, int L, double radius, double nu, long seed,
+                      String storageFile) {
+        this(N, timeStep, maxIterations, L, radius, nu, seed, storageFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Same on the given number of threads (see setThreads)
+    public Simulation(int N, double timeStep, int maxIterations, int L, double radius, double nu, long seed,
+                      String storageFile, int threads) {
+        this.seed = seed;
+        this.storageFile = storageFile;
+        this.range = new ParallelRange(threads);
         this.N = N;
         this.timeStep = timeStep;
         this.maxIterations = maxIterations;
@@ -52,127 +135,378 @@ public final class Simulation {
     public void setNu(double nu){
         this.nu = nu;
     }
+
+    public void setSeed(long seed){
+        this.seed = seed;
+    }
+
+    // The generator draws the initial state as well as the noise, so the particles are generated again with it
+    public void setRng(CounterRng rng){
+        this.rng = rng;
+        regenerateParticles();
+    }
+
+    public CounterRng getRng() {
+        return rng;
+    }
+
+    // MIXED and FLOAT keep the particles in float (see Precision), the initial state is rounded to it so
+    // the particles are generated again
+    public void setPrecision(Precision precision){
+        this.precision = precision;
+        regenerateParticles();
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    // Animation runs write only the frames whose step is a multiple of frameInterval
+    public void setFrameInterval(int frameInterval){
+        this.frameInterval = Math.max(frameInterval, 1);
+    }
+
+    // With skin > 0 neighbors come from Verlet lists of radius rc + skin instead of a new search every step,
+    // the neighbor lists (and so the results) are the same either way. Rebuilds are counted in the verlet_lists
+    // metrics note
+    public void setVerletSkin(double skin){
+        this.verletSkin = Math.max(skin, 0);
+        this.verletList = verletSkin > 0
+                ? new VerletList(N, L, rc, verletSkin, cellIndex.getDivisions(), precision) : null;
+    }
+
+    // Vicsek steps accumulate the alignment sums while scanning the cells instead of building neighbor lists,
+    // memory stays O(N) whatever the density. Sums are added in a different order than with neighbor lists,
+    // so trajectories agree with the other modes up to rounding.
+    // Random neighbour steps pick the neighbor during the scan as well (CellIndex.chooseRandomNeighbors), with other
+    // random numbers than the neighbor list rule: the same model with different trajectories
+    public void setFusedAlignment(boolean fusedAlignment){
+        this.fusedAlignment = fusedAlignment;
+        if (fusedAlignment && alignmentCos == null) {
+            alignmentCos = new double[N];
+            alignmentSin = new double[N];
+            alignmentCount = new int[N];
+            voterChoice = new int[N];
+        }
+    }
+
+    // With targetError > 0 polarization runs stop as soon as the steady state mean of the polarization
+    // is known within targetError (maxIterations is still the limit)
+    public void setTargetError(double targetError){
+        this.targetError = Math.max(targetError, 0);
+    }
+
+    // Every interval steps the particles are sorted along a Hilbert curve over the cells, so neighbors in space are
+    // neighbors in memory. 0 disables it, AUTO_REORDER picks the interval from the cell size and the speed.
+    // Sums are then added in a different order, so trajectories agree with unordered runs up to rounding
+    public void setReorderInterval(int interval){
+        this.reorderInterval = interval;
+    }
+
+    // Cells of rc / divisions instead of rc: each cell is tested against more, smaller cells, so fewer pairs out of rc
+    // are tested, at the cost of more cells to visit. AUTO_CELL_DIVISIONS times the neighbor search of the current
+    // positions with 1, 2 and 3 at the start of the next run and keeps the fastest (the cell_divisions metrics note).
+    // Neighbor lists are the same whatever the cells, fused sums are added in another order (equal up to rounding)
+    public void setCellDivisions(int divisions){
+        this.cellDivisions = Math.max(divisions, AUTO_CELL_DIVISIONS);
+        this.cellIndex = createCellIndex(rc, requestedCellDivisions());
+        this.cellsTuned = false;
+        setVerletSkin(verletSkin);
+    }
+
+    private int requestedCellDivisions() {
+        return cellDivisions == AUTO_CELL_DIVISIONS ? 1 : cellDivisions;
+    }
+
+    private CellIndex createCellIndex(double radius, int divisions) {
+        return new CellIndex(N, L, CellIndex.cellsPerSide(L, radius, divisions), radius, divisions, precision);
+    }
+
+    // Runs that write output also write a checkpoint every interval steps (0 disables them),
+    // Simulation.restore() continues the run from the last one
+    public void setCheckpoint(String fileName, int interval){
+        this.checkpointFile = fileName;
+        this.checkpointInterval = fileName == null ? 0 : Math.max(interval, 0);
+    }
+
+    // Every run appends its per step timings and neighbor statistics to prefix.steps.csv and a summary to
+    // prefix.summary.json, null turns them off (Flight Recorder still gets the steps when it records them)
+    public void setMetrics(String prefix){
+        this.metrics = new RunMetrics(prefix);
+    }
+
+    // Every run appends the clusters of the neighbor graph of one state every interval steps to prefix.clusters.csv
+    // and their size histogram to prefix.cluster_sizes.csv (see ClusterAnalysis), null turns them off.
+    // The links come from the neighbor search of the step, results do not change
+    public void setClusterAnalysis(String prefix, int interval){
+        this.clusters = new ClusterAnalysis(prefix, interval);
+    }
+
+    // Every run writes to prefix.correlations.csv the radial distribution g(r) and the orientational correlation
+    // C(r) up to cutoff in bins of binWidth, averaged over the states every interval steps (see PairCorrelations).
+    // null turns them off, results do not change
+    public void setPairCorrelations(String prefix, double cutoff, double binWidth, int interval){
+        this.correlations = new PairCorrelations(prefix, cutoff, binWidth, interval);
+    }
+
+    // Results do not depend on the number of threads, only on the seed. Ranges share their pools, the old one
+    // needs no closing
+    public void setThreads(int threads){
+        this.range = new ParallelRange(threads);
+    }
     
     public void setN(int N){
         this.N = N;
         this.density = (double) N / (L * L);
     }
 
-    private void writeParticleDataToFile(String fileName, int step, List<Particle> particles) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write("t:" + step + "\n");
-            for (Particle particle : particles) {
-                writer.write(String.format("%d;%.6f;%.6f;%.6f",
-                        particle.getId(),
-                        particle.getCurrentX(),
-                        particle.getCurrentY(),
-                        particle.getThetaAngle()));
-                writer.newLine();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Files ending in .bin get the binary trajectory format, .png a rendered image per frame (name_<step>.png),
+    // anything else the text one. Frames are written on a background thread, keeping one every frameInterval steps
+    private TrajectoryWriter openTrajectory(String fileName) throws IOException {
+        TrajectoryWriter writer;
+        if (fileName.endsWith(".png")) {
+            writer = new PngFrameWriter(fileName.substring(0, fileName.length() - ".png".length()), L, PNG_SIZE,
+                    seed, rng.name());
+        } else if (fileName.endsWith(".bin")) {
+            // a restored run keeps the frames up to its checkpoint
+            writer = new BinaryTrajectoryWriter(fileName, N, L, rc, nu, timeStep, particles.getVelocity(0), seed,
+                    rng.id(), startIteration);
+        } else {
+            writer = new TextTrajectoryWriter(fileName, N, L, density, seed, rng.name());
         }
+        // images and binary frames only hold float32 values
+        return new AsyncTrajectoryWriter(writer, N, frameInterval, ids, !(writer instanceof TextTrajectoryWriter));
     }
 
-    private void writeDataToFile(String fileName, String data) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write(data);
+    private ParticleStore allocateStore(String fileName, boolean temporary) {
+        if (fileName == null) {
+            return ParticleStore.allocate(N, precision);
+        }
+        try {
+            return new MappedParticleStore(fileName, N, precision.isSingle(), temporary);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("Cannot map the particle storage " + fileName, e);
         }
     }
 
-    private List<Particle> generateParticles() {
-        List<Particle> particles = new ArrayList<>(N);
-        final double velocity = 0.03;
-
-        for (int i = 0; i < N; i++) {
-            double currentX = new Random().nextDouble() * L; // Random X position within L
-            double currentY = new Random().nextDouble() * L; // Random Y position within L
-            double thetaAngle = Math.toRadians(new Random().nextDouble() * 360); // randomize 0 to 360 degrees
-            Particle particle = new Particle(currentX, currentY, velocity, thetaAngle, i);
-            particles.add(particle);
-        }
+    private ParticleStore generateParticles() {
+        ParticleStore particles = allocateStore(storageFile, false);
+        // every particle has its own numbers, so blocks can be generated concurrently
+        range.forEach(N, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                double currentX = rng.uniform(seed, CounterRng.INITIAL_X, i) * L; // Random X position within L
+                double currentY = rng.uniform(seed, CounterRng.INITIAL_Y, i) * L; // Random Y position within L
+                double thetaAngle = Math.toRadians(rng.uniform(seed, CounterRng.INITIAL_THETA, i) * 360); // randomize 0 to 360 degrees
+                particles.set(i, currentX, currentY, thetaAngle, VELOCITY);
+            }
+        });
 
         return particles;
     }
 
+    // The snapshot is kept in id order
     public void resetParticlesToInitialSnapshot() {
-        this.particles = initialSnapshot.stream()
-            .map(Particle::copy)
-            .collect(Collectors.toCollection(ArrayList::new));
+        this.particles.copyFrom(initialSnapshot);
+        resetOrder();
+        cellIndex.invalidate();
+        if (verletList != null) {
+            verletList.invalidate();
+        }
     }
 
     public void regenerateParticles() {
+        closeStorage();
         this.particles = generateParticles();
-        this.initialSnapshot = particles.stream()
-            .map(Particle::copy)
-            .collect(Collectors.toCollection(ArrayList::new));
+        this.initialSnapshot = allocateStore(storageFile == null ? null : storageFile + ".initial", true);
+        initialSnapshot.copyFrom(particles);
+        this.ids = new int[N];
+        this.uniforms = new double[N];
+        this.slotOf = new int[N];
+        resetOrder();
+        this.reorderKeys = null;
+        this.neighbors = new NeighborList(N);
+        this.cellIndex = createCellIndex(rc, requestedCellDivisions());
+        this.cellsTuned = false;
+        setVerletSkin(verletSkin);
+        this.alignmentCos = null;
+        setFusedAlignment(fusedAlignment);
+        this.partialVelocityX = new double[ParallelRange.blocks(N)];
+        this.partialVelocityY = new double[ParallelRange.blocks(N)];
     }
 
-    private void findNeighbors() {
-        HashMap<Cell, List<Particle>> cellMap = new HashMap<>();
-        double cell_size = L / M;
+    // Closes the storage files, only needed with a storageFile. The storage file keeps the current step in id order
+    // (MappedParticleStore.open maps it again), the initial snapshot is deleted. The simulation must not be used
+    // afterwards except through regenerateParticles(), which maps new ones
+    public void closeStorage() {
+        if (particles instanceof MappedParticleStore && reorderVisited != null) {
+            particles.permute(slotOf, reorderVisited);
+        }
+        for (ParticleStore store : new ParticleStore[]{particles, initialSnapshot}) {
+            if (store instanceof MappedParticleStore mapped) {
+                try {
+                    mapped.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
 
-        for (Particle particle : particles) {
-            int cellX = (int) ((particle.getCurrentX() / cell_size) + M) % M;
-            int cellY = (int) ((particle.getCurrentY() / cell_size) + M) % M;
+    private void resetOrder() {
+        for (int i = 0; i < N; i++) {
+            ids[i] = i;
+            slotOf[i] = i;
+        }
+    }
 
-            Cell cell = new Cell(cellX, cellY);
-            cellMap.computeIfAbsent(cell, k -> new ArrayList<>()).add(particle);
+    private int effectiveReorderInterval() {
+        if (reorderInterval != AUTO_REORDER) {
+            return reorderInterval;
         }
+        return Math.max(1, (int) Math.ceil(cellIndex.getCellSize() / (particles.getVelocity(0) * timeStep)));
+    }
 
-        for (Entry<Cell, List<Particle>> entry : cellMap.entrySet()) {
-            Cell cell = entry.getKey();
-            List<Particle> cellParticles = entry.getValue();
+    // Counting sort of the particles by the rank of their cell along the curve
+    private void reorder() {
+        int M = cellIndex.getM();
+        if (curveRanks == null || curveRanks.length != M * M) {
+            curveRanks = SpaceFillingCurve.hilbertRanks(M);
+        }
+        if (reorderKeys == null) {
+            reorderKeys = new int[N];
+            reorderOrder = new int[N];
+            reorderVisited = new BitSet(N);
+        }
+        int[] start = new int[M * M + 1];
+        for (int i = 0; i < N; i++) {
+            int key = curveRanks[cellIndex.cellOf(particles.getX(i), particles.getY(i))];
+            reorderKeys[i] = key;
+            start[key + 1]++;
+        }
+        for (int c = 0; c < M * M; c++) {
+            start[c + 1] += start[c];
+        }
+        for (int i = 0; i < N; i++) {
+            reorderOrder[start[reorderKeys[i]]++] = i;
+        }
+        particles.permute(reorderOrder, reorderVisited);
 
-            for (int dx = -1; dx <= 1; dx++) {
-                for (int dy = -1; dy <= 1; dy++) {
-                    int neighborX = (cell.x + dx + M) % M;
-                    int neighborY = (cell.y + dy + M) % M;
+        // ids keeps its identity, writers hold on to it
+        for (int k = 0; k < N; k++) {
+            reorderKeys[k] = ids[reorderOrder[k]];
+        }
+        System.arraycopy(reorderKeys, 0, ids, 0, N);
+        for (int k = 0; k < N; k++) {
+            slotOf[ids[k]] = k;
+        }
+        cellIndex.invalidate();
+        if (verletList != null) {
+            verletList.invalidate();
+        }
+    }
 
-                    Cell neighborCell = new Cell(neighborX, neighborY);
-                    List<Particle> neighborParticles = cellMap.getOrDefault(neighborCell, Collections.emptyList());
+    private void maybeReorder(int iteration) {
+        int interval = effectiveReorderInterval();
+        if (interval > 0 && iteration % interval == 0) {
+            long start = metrics.start();
+            reorder();
+            metrics.end(RunMetrics.Phase.REORDER, start);
+        }
+    }
 
-                    for (Particle particle : cellParticles) {
-                        for (Particle neighbor : neighborParticles) {
-                            if (particle.getId() >= neighbor.getId()) {
-                                continue;
-                            }
+    private void findNeighbors() {
+        if (verletList != null) {
+            long start = metrics.start();
+            verletList.findNeighbors(particles, neighbors, range);
+            metrics.end(RunMetrics.Phase.NEIGHBORS, start);
+            recordNeighbors();
+            return;
+        }
+        long start = metrics.start();
+        cellIndex.update(particles, range);
+        metrics.end(RunMetrics.Phase.BINNING, start);
+        start = metrics.start();
+        range.forEach(N, (from, to) -> cellIndex.findNeighbors(particles, neighbors, from, to));
+        metrics.end(RunMetrics.Phase.NEIGHBORS, start);
+        recordNeighbors();
+    }
 
-                            double dxPos = neighbor.getCurrentX() - particle.getCurrentX();
-                            double dyPos = neighbor.getCurrentY() - particle.getCurrentY();
+    // Neighbor counts and pair tests of the step, only when it is measured
+    private void recordNeighbors() {
+        if (!metrics.isTiming()) {
+            return;
+        }
+        long accepted = 0;
+        for (int i = 0; i < N; i++) {
+            metrics.addNeighborCount(neighbors.count(i));
+            accepted += neighbors.count(i);
+        }
+        long tests = verletList != null ? verletList.lastCandidatePairs() : cellIndex.candidatePairs();
+        metrics.addPairTests(tests, accepted);
+    }
 
-                            dxPos -= Math.round(dxPos / L) * L;
-                            dyPos -= Math.round(dyPos / L) * L;
+    // Same for the fused kernel, which tests every pair once
+    private void recordAlignmentCounts() {
+        if (!metrics.isTiming()) {
+            return;
+        }
+        long accepted = 0;
+        for (int i = 0; i < N; i++) {
+            metrics.addNeighborCount(alignmentCount[i]);
+            accepted += alignmentCount[i];
+        }
+        metrics.addPairTests(cellIndex.halfCandidatePairs(), accepted / 2);
+    }
 
-                            double distance = Math.sqrt(dxPos * dxPos + dyPos * dyPos);
+    // Pair correlations of the state the step starts from (iteration - 1 steps done), when it is sampled
+    private void sampleCorrelations(int iteration) {
+        if (!correlations.isDue(iteration - 1)) {
+            return;
+        }
+        long start = metrics.start();
+        correlations.sample(particles, range);
+        metrics.end(RunMetrics.Phase.CORRELATIONS, start);
+    }
 
-                            if (distance <= rc) {
-                                particle.addNeighbor(neighbor);
-                                neighbor.addNeighbor(particle);
-                            }
-                        }
-                    }
-                }
-            }
+    // Clusters of the neighbor lists of the step, when the state it starts from is analyzed
+    private void recordListClusters(int iteration) {
+        UnionFind links = clusters.links(iteration - 1, range);
+        if (links == null) {
+            return;
         }
+        long start = metrics.start();
+        clusters.link(links, neighbors, range);
+        metrics.end(RunMetrics.Phase.CLUSTERS, start);
+        recordClusters(iteration, links);
+    }
+
+    // Cluster statistics of the state the step starts from (iteration - 1 steps done), before the update replaces it.
+    // links holds its neighbor graph, null when the state is not analyzed
+    private void recordClusters(int iteration, UnionFind links) {
+        if (links == null) {
+            return;
+        }
+        long start = metrics.start();
+        clusters.record(iteration - 1, particles, range);
+        metrics.end(RunMetrics.Phase.CLUSTERS, start);
     }
 
     private void bruteForceMethod(){
+        double rc2 = rc * rc;
         for(int i = 0; i < N; i++ ){
-            for(int j = i + 1; j < N; j++){
-                double dx = particles.get(i).getCurrentX() - particles.get(j).getCurrentX();
-                double dy = particles.get(i).getCurrentY() - particles.get(j).getCurrentY();
+            neighbors.start(i);
+            for(int j = 0; j < N; j++){
+                if(i == j){
+                    continue;
+                }
+                double dx = particles.getX(i) - particles.getX(j);
+                double dy = particles.getY(i) - particles.getY(j);
 
                 dx = dx - Math.round(dx / L) * L;
                 dy = dy - Math.round(dy / L) * L;
 
-                double distance = Math.sqrt(dx*dx + dy*dy);
-
-                if(distance < rc){
-                    particles.get(i).addNeighbor(particles.get(j));
-                    particles.get(j).addNeighbor(particles.get(i));
+                if(dx*dx + dy*dy <= rc2){
+                    neighbors.add(i, j);
                 }
             }
         }
@@ -188,12 +522,12 @@ public final class Simulation {
         clearNeighbors();
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter("differences.txt", true))) {
-            for (Particle p : particles) {
-                Set<Integer> cellSet = cellNeighbors.getOrDefault(p.getId(), Collections.emptySet());
-                Set<Integer> bruteSet = bruteNeighbors.getOrDefault(p.getId(), Collections.emptySet());
+            for (int i = 0; i < N; i++) {
+                Set<Integer> cellSet = cellNeighbors.getOrDefault(i, Collections.emptySet());
+                Set<Integer> bruteSet = bruteNeighbors.getOrDefault(i, Collections.emptySet());
 
                 if (!cellSet.equals(bruteSet)) {
-                    writer.write("Mismatch for particle \n" + p.getId());
+                    writer.write("Mismatch for particle \n" + i);
                     writer.write("Cell method: \n" + cellSet);
                     writer.write("Brute force: \n" + bruteSet);
                 }
@@ -205,11 +539,12 @@ public final class Simulation {
 
     private Map<Integer, Set<Integer>> snapshotNeighbors() {
         Map<Integer, Set<Integer>> map = new HashMap<>();
-        for (Particle p : particles) {
-            Set<Integer> ids = p.getNeighbors().stream()
-                                .map(Particle::getId)
-                                .collect(Collectors.toSet());
-            map.put(p.getId(), ids);
+        for (int i = 0; i < N; i++) {
+            Set<Integer> neighborIds = new HashSet<>();
+            for (int k = 0; k < neighbors.count(i); k++) {
+                neighborIds.add(ids[neighbors.get(i, k)]);
+            }
+            map.put(ids[i], neighborIds);
         }
         return map;
     }
@@ -224,21 +559,22 @@ public final class Simulation {
     }
 
     private void clearNeighbors(){
-        for(Particle p : particles){
-            p.clearNeighbors();
-        }
+        neighbors.clear();
     }
 
     private void printNeighbours(String fileName){
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            for (Particle particle : particles) {
-                writer.write(String.format("%d:[",
-                        particle.getId()));
-                List<Particle> neighbours = particle.getNeighbors();
-                Collections.sort(neighbours, (p1, p2) -> Integer.compare(p2.getId(), p1.getId()));
-
-                for(Particle neighbour : neighbours){
-                    writer.write(String.format("%d ", neighbour.getId()));
+            for (int i = 0; i < N; i++) {
+                int particle = slotOf[i];
+                writer.write(String.format("%d:[", i));
+                List<Integer> neighbours = new ArrayList<>(neighbors.count(particle));
+                for (int k = 0; k < neighbors.count(particle); k++) {
+                    neighbours.add(ids[neighbors.get(particle, k)]);
+                }
+                neighbours.sort(Collections.reverseOrder());
+
+                for(int neighbour : neighbours){
+                    writer.write(String.format("%d ", neighbour));
                 }
                 writer.write("]");
                 writer.newLine();
@@ -248,141 +584,544 @@ public final class Simulation {
         }
     }
 
+    private void stepVicsek(int iteration){
+        metrics.beginStep(iteration);
+        maybeReorder(iteration);
+        sampleCorrelations(iteration);
+        if (fusedAlignment) {
+            long start = metrics.start();
+            cellIndex.update(particles, range);
+            metrics.end(RunMetrics.Phase.BINNING, start);
+            UnionFind links = clusters.links(iteration - 1, range);
+            start = metrics.start();
+            cellIndex.accumulateAlignment(particles, alignmentCos, alignmentSin, alignmentCount, links, range);
+            metrics.end(RunMetrics.Phase.NEIGHBORS, start);
+            recordAlignmentCounts();
+            recordClusters(iteration, links);
+            start = metrics.start();
+            range.forEach(N, (from, to) -> updatePositionsFromSums(iteration, from, to));
+            particles.swap();
+            metrics.end(RunMetrics.Phase.UPDATE, start);
+            return;
+        }
+        findNeighbors();
+        recordListClusters(iteration);
+        updatePositions(iteration);
+    }
+
     private void updatePositions(int iteration){
-        List<Particle> updatedParticlesPositions = new ArrayList<>(N);
-        for(Particle particle: particles) {
-            List<Particle> neighbors = particle.getNeighbors();
-            neighbors.add(particle);
-            double cosSum = 0;
-            double sinSum = 0;
-            double newThetaAngle = particle.getThetaAngle();
-
-            // Delta Theta is a random number chosen with a uniform probability from the
-            // interval [—theta/2, theta/2].
-            double noise = (Math.random() - 0.5) * this.nu;
-            for(Particle neighbor: neighbors){
-                cosSum += Math.cos(neighbor.getThetaAngle());
-                sinSum += Math.sin(neighbor.getThetaAngle());
-            }
+        long start = metrics.start();
+        range.forEach(N, (from, to) -> updatePositions(iteration, from, to));
+        particles.swap();
+        metrics.end(RunMetrics.Phase.UPDATE, start);
+    }
 
-            double newX = (particle.getCurrentX()
-                    + particle.getVelocity() * Math.cos(particle.getThetaAngle()) * timeStep) % L;
-            double newY = (particle.getCurrentY()
-                    + particle.getVelocity() * Math.sin(particle.getThetaAngle()) * timeStep) % L;
+    // Each particle only writes its own slot of the back buffer, so ranges can run concurrently
+    private void updatePositions(int iteration, int from, int to){
+        if (precision == Precision.FLOAT) {
+            updatePositionsFloat(iteration, from, to);
+            return;
+        }
+        rng.fill(seed, iteration, ids, from, to, uniforms);
+        for(int i = from; i < to; i++) {
+            int neighborCount = neighbors.count(i);
+
+            // the particle itself is part of its neighborhood
+            double cosSum = particles.getCos(i);
+            double sinSum = particles.getSin(i);
+            for(int k = 0; k < neighborCount; k++){
+                int neighbor = neighbors.get(i, k);
+                cosSum += particles.getCos(neighbor);
+                sinSum += particles.getSin(neighbor);
+            }
 
-            if (newX < 0)
-                newX += L;
-            if (newY < 0)
-                newY += L;
+            align(i, cosSum, sinSum, neighborCount);
+        }
+    }
 
-            // average theta calculation in radians
-            if(neighbors.size() > 1){
-                double averageTheta = Math.atan2(sinSum / neighbors.size(), cosSum / neighbors.size());
-                newThetaAngle = averageTheta + noise;
+    // Same with the sums added up in float
+    private void updatePositionsFloat(int iteration, int from, int to){
+        rng.fill(seed, iteration, ids, from, to, uniforms);
+        for(int i = from; i < to; i++) {
+            int neighborCount = neighbors.count(i);
+
+            float cosSum = (float) particles.getCos(i);
+            float sinSum = (float) particles.getSin(i);
+            for(int k = 0; k < neighborCount; k++){
+                int neighbor = neighbors.get(i, k);
+                cosSum += (float) particles.getCos(neighbor);
+                sinSum += (float) particles.getSin(neighbor);
             }
 
-            // particle with updated position and angle
-            Particle updatedParticle = new Particle(newX, newY, particle.getVelocity(), newThetaAngle, particle.getId());
-            updatedParticlesPositions.add(updatedParticle);
+            align(i, cosSum, sinSum, neighborCount);
+        }
+    }
+
+    // Same update with the sums left by CellIndex.accumulateAlignment
+    private void updatePositionsFromSums(int iteration, int from, int to){
+        rng.fill(seed, iteration, ids, from, to, uniforms);
+        for(int i = from; i < to; i++) {
+            align(i, alignmentCos[i], alignmentSin[i], alignmentCount[i]);
         }
-        particles = updatedParticlesPositions;
     }
 
-    private void updatePositionsRandomNeighbour(){
-        List<Particle> updatedParticlesPositions = new ArrayList<>(N);
-        for(Particle particle: particles) {
-            List<Particle> neighbors = particle.getNeighbors();
+    // Moves particle i along its heading and turns it to the average heading of its neighborhood plus noise,
+    // uniforms[i] must hold its random number of the step
+    private void align(int i, double cosSum, double sinSum, int neighborCount){
+        double cos = particles.getCos(i);
+        double sin = particles.getSin(i);
+        double velocity = particles.getVelocity(i);
+        double newThetaAngle = particles.getTheta(i);
+        double newCos = cos;
+        double newSin = sin;
+
+        // Delta Theta is a random number chosen with a uniform probability from the
+        // interval [—theta/2, theta/2].
+        double noise = (uniforms[i] - 0.5) * this.nu;
+
+        double newX = (particles.getX(i) + velocity * cos * timeStep) % L;
+        double newY = (particles.getY(i) + velocity * sin * timeStep) % L;
+
+        if (newX < 0)
+            newX += L;
+        if (newY < 0)
+            newY += L;
+
+        // average theta calculation in radians
+        if(neighborCount > 0){
+            int size = neighborCount + 1;
+            double averageTheta = Math.atan2(sinSum / size, cosSum / size);
+            newThetaAngle = averageTheta + noise;
+            // the only trigonometry of the step, once per particle
+            newCos = Math.cos(newThetaAngle);
+            newSin = Math.sin(newThetaAngle);
+        }
+
+        // updated position and angle go to the back buffer
+        particles.setNext(i, newX, newY, newThetaAngle, newCos, newSin);
+    }
+
+    private void stepRandomNeighbour(int iteration){
+        metrics.beginStep(iteration);
+        maybeReorder(iteration);
+        sampleCorrelations(iteration);
+        if (fusedAlignment) {
+            long start = metrics.start();
+            cellIndex.update(particles, range);
+            metrics.end(RunMetrics.Phase.BINNING, start);
+            UnionFind links = clusters.links(iteration - 1, range);
+            start = metrics.start();
+            cellIndex.chooseRandomNeighbors(ids, rng, seed, iteration, voterChoice, alignmentCount, links, range);
+            metrics.end(RunMetrics.Phase.NEIGHBORS, start);
+            recordAlignmentCounts();
+            recordClusters(iteration, links);
+            start = metrics.start();
+            range.forEach(N, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    follow(i, voterChoice[i]);
+                }
+            });
+            particles.swap();
+            metrics.end(RunMetrics.Phase.UPDATE, start);
+            return;
+        }
+        findNeighbors();
+        recordListClusters(iteration);
+        updatePositionsRandomNeighbour(iteration);
+    }
+
+    private void updatePositionsRandomNeighbour(int iteration){
+        long start = metrics.start();
+        range.forEach(N, (from, to) -> updatePositionsRandomNeighbour(iteration, from, to));
+        particles.swap();
+        metrics.end(RunMetrics.Phase.UPDATE, start);
+    }
+
+    private void updatePositionsRandomNeighbour(int iteration, int from, int to){
+        rng.fill(seed, iteration, ids, from, to, uniforms);
+        for(int i = from; i < to; i++) {
+            int neighborCount = neighbors.count(i);
 
             //If no neighbours are present, then we keep the old angle
-            double newThetaAngle = particle.getThetaAngle();
+            int source = i;
 
-            if(!neighbors.isEmpty()) {
-                Particle randomNeighbour = neighbors.get((int) (Math.random() * neighbors.size()));
-                newThetaAngle = randomNeighbour.getThetaAngle();
+            if(neighborCount > 0) {
+                source = neighbors.get(i, (int) (uniforms[i] * neighborCount));
             }
-            
-            double newX = (particle.getCurrentX()
-                    + particle.getVelocity() * Math.cos(particle.getThetaAngle()) * timeStep) % L;
-            double newY = (particle.getCurrentY()
-                    + particle.getVelocity() * Math.sin(particle.getThetaAngle()) * timeStep) % L;
 
-            if (newX < 0)
-                newX += L;
-            if (newY < 0)
-                newY += L;
-
-            Particle updatedParticle = new Particle(newX, newY, particle.getVelocity(), newThetaAngle, particle.getId());
-            updatedParticlesPositions.add(updatedParticle);
+            follow(i, source);
         }
-        particles = updatedParticlesPositions;
+    }
+
+    // Moves particle i along its heading and gives it the heading of particle source
+    private void follow(int i, int source){
+        double cos = particles.getCos(i);
+        double sin = particles.getSin(i);
+        double velocity = particles.getVelocity(i);
+
+        double newX = (particles.getX(i) + velocity * cos * timeStep) % L;
+        double newY = (particles.getY(i) + velocity * sin * timeStep) % L;
+
+        if (newX < 0)
+            newX += L;
+        if (newY < 0)
+            newY += L;
+
+        // the heading is copied from the chosen neighbour, no trigonometry needed
+        particles.setNext(i, newX, newY, particles.getTheta(source), particles.getCos(source), particles.getSin(source));
     }
 
     private double calculatePolarization() {
-        // sum of velocity components for each particle
+        long start = metrics.start();
+        // sum of velocity components for each particle, partial sums per block are added
+        // in block order so the result does not depend on the number of threads
+        if (precision == Precision.FLOAT) {
+            range.forEach(N, this::sumVelocitiesFloat);
+        } else {
+            range.forEach(N, (from, to) -> {
+                double blockX = 0.0;
+                double blockY = 0.0;
+                for(int i = from; i < to; i++) {
+                    blockX += particles.getVelocity(i) * particles.getCos(i);
+                    blockY += particles.getVelocity(i) * particles.getSin(i);
+                }
+                partialVelocityX[from >> ParallelRange.BLOCK_SHIFT] = blockX;
+                partialVelocityY[from >> ParallelRange.BLOCK_SHIFT] = blockY;
+            });
+        }
         double velocityX = 0.0;
         double velocityY = 0.0;
-        for(Particle particle : particles) {
-            velocityX += particle.getVelocity() * Math.cos(particle.getThetaAngle());
-            velocityY += particle.getVelocity() * Math.sin(particle.getThetaAngle());   
+        for(int b = 0; b < partialVelocityX.length; b++) {
+            velocityX += partialVelocityX[b];
+            velocityY += partialVelocityY[b];
         }
         // calculate the magnitude of the composite velocity vector
         double magnitude = Math.sqrt(velocityX * velocityX + velocityY * velocityY);
-        double polarizarion = (magnitude) / (N * particles.getFirst().getVelocity());
+        double polarizarion = (magnitude) / (N * particles.getVelocity(0));
+        metrics.end(RunMetrics.Phase.POLARIZATION, start);
         return polarizarion;
     }
 
+    // Block sums of the velocity components added up in float, for Precision.FLOAT
+    private void sumVelocitiesFloat(int from, int to) {
+        float blockX = 0.0f;
+        float blockY = 0.0f;
+        for(int i = from; i < to; i++) {
+            blockX += (float) (particles.getVelocity(i) * particles.getCos(i));
+            blockY += (float) (particles.getVelocity(i) * particles.getSin(i));
+        }
+        partialVelocityX[from >> ParallelRange.BLOCK_SHIFT] = blockX;
+        partialVelocityY[from >> ParallelRange.BLOCK_SHIFT] = blockY;
+    }
+
     public void runSimulationForAnimationRandomNeighbour(String filePath) {
         String path = String.format("rn_%s",filePath);
+        beginRun();
 
-        writeDataToFile(path, String.format("L:%d\n", L));
-        writeDataToFile(path, String.format("N:%d\n", N));
-        writeParticleDataToFile(path, 0, particles);
-        for (int i = 1; i <= maxIterations; i++){
-            findNeighbors();
-            updatePositionsRandomNeighbour();
-            writeParticleDataToFile(path, i, particles);
+        try (TrajectoryWriter writer = openTrajectory(path); CheckpointWriter checkpoints = openCheckpoints()) {
+            if (startIteration == 0) {
+                writer.writeFrame(0, particles);
+            }
+            for (int i = startIteration + 1; i <= maxIterations; i++){
+                stepRandomNeighbour(i);
+                writeFrame(writer, i);
+                checkpoint(checkpoints, i);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        writeDataToFile(path, String.format("density:%.3f\n", density));
+        endRun();
     }
 
     public void runSimulationForAnimation(String filePath) {
-        writeDataToFile(filePath, String.format("L:%d\n", L));
-        writeDataToFile(filePath, String.format("N:%d\n", N));
-        writeParticleDataToFile(filePath, 0, particles);
-        for (int i = 1; i <= maxIterations; i++){
-            findNeighbors();
-            updatePositions(i);
-            writeParticleDataToFile(filePath, i, particles);
+        beginRun();
+        try (TrajectoryWriter writer = openTrajectory(filePath); CheckpointWriter checkpoints = openCheckpoints()) {
+            if (startIteration == 0) {
+                writer.writeFrame(0, particles);
+            }
+            for (int i = startIteration + 1; i <= maxIterations; i++){
+                stepVicsek(i);
+                writeFrame(writer, i);
+                checkpoint(checkpoints, i);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        writeDataToFile(filePath, String.format("density:%.3f\n", density));
+        endRun();
     }
 
-    public void runSimulationForPolarization(String filePath, double nu) {
+    // With a target error the run stops once the polarization is stationary and known within it, the detection is
+    // returned (and added to the metrics notes) for the caller to report. Null without a target error
+    public SteadyStateMonitor runSimulationForPolarization(String filePath, double nu) {
         setNu(nu);
-        for(int i = 1; i <= maxIterations; i++){
-            findNeighbors();
-            updatePositions(i);
-            writeDataToFile(filePath, String.format("%.5f\n", calculatePolarization()));
+        beginRun();
+        if (startIteration == 0 || monitor == null) {
+            monitor = new SteadyStateMonitor(targetError);
+        }
+        try (SeriesWriter writer = new SeriesWriter(filePath, 1, "%.5f", describe()); CheckpointWriter checkpoints = openCheckpoints()) {
+            for(int i = startIteration + 1; i <= maxIterations; i++){
+                stepVicsek(i);
+                double polarization = calculatePolarization();
+                long start = metrics.start();
+                writer.append(polarization);
+                metrics.end(RunMetrics.Phase.OUTPUT, start);
+                // the checkpoint of step i holds its sample
+                boolean converged = monitor.add(polarization);
+                checkpoint(checkpoints, i);
+                if(converged){
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // only runs that stop on their own have a decision to report
+        SteadyStateMonitor detection = targetError > 0 ? monitor : null;
+        if (detection != null) {
+            metrics.note("steady_state", detection.summary());
         }
+        monitor = null;
+        endRun();
+        return detection;
     }
 
     public void runSimulationForPolarizationRandomNeighbor(String filePath) {
-        for(int i = 1; i <= maxIterations; i++){
-            findNeighbors();
-            updatePositionsRandomNeighbour();
-            writeDataToFile(filePath, String.format("%.5f\n", calculatePolarization()));
+        beginRun();
+        try (SeriesWriter writer = new SeriesWriter(filePath, 1, "%.5f", describe()); CheckpointWriter checkpoints = openCheckpoints()) {
+            for(int i = startIteration + 1; i <= maxIterations; i++){
+                stepRandomNeighbour(i);
+                double polarization = calculatePolarization();
+                long start = metrics.start();
+                writer.append(polarization);
+                metrics.end(RunMetrics.Phase.OUTPUT, start);
+                checkpoint(checkpoints, i);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        endRun();
     }
     
+    // Runs on the calling thread and hands frames to a live view through the buffer, the view drops the ones it cannot
+    // show so it never slows the simulation down. Stops early when cancelled
+    public void runLive(FrameBuffer frames, RunControl control, boolean randomNeighbour) {
+        beginRun();
+        frames.offer(startIteration, particles);
+        try (CheckpointWriter checkpoints = openCheckpoints()) {
+            for (int i = startIteration + 1; i <= maxIterations && control.awaitRunning(); i++){
+                if (randomNeighbour) {
+                    stepRandomNeighbour(i);
+                } else {
+                    stepVicsek(i);
+                }
+                long start = metrics.start();
+                frames.offer(i, particles);
+                metrics.end(RunMetrics.Phase.OUTPUT, start);
+                control.setProgress(i, maxIterations);
+                checkpoint(checkpoints, i);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        endRun();
+    }
+
+    private void writeFrame(TrajectoryWriter writer, int iteration) throws IOException {
+        long start = metrics.start();
+        writer.writeFrame(iteration, particles);
+        metrics.end(RunMetrics.Phase.OUTPUT, start);
+    }
+
+    // Header line of the series files, enough to run the same simulation again
+    private String describe() {
+        String description = String.format(Locale.ROOT, "seed=%d rng=%s N=%d L=%d rc=%s nu=%s dt=%s", seed, rng.name(), N, L, rc, nu, timeStep);
+        // double runs keep the header they always had
+        return precision == Precision.DOUBLE ? description : description + " precision=" + precision.name().toLowerCase(Locale.ROOT);
+    }
+
+    // Null when checkpoints are disabled
+    private CheckpointWriter openCheckpoints() {
+        if (checkpointInterval == 0) {
+            return null;
+        }
+        return new CheckpointWriter(checkpointFile, particles, L, maxIterations, frameInterval, rc, nu, timeStep, seed,
+                verletSkin, targetError, fusedAlignment, checkpointInterval, reorderInterval, rng.id(),
+                cellIndex.getDivisions(), precision.id());
+    }
+
+    private void checkpoint(CheckpointWriter checkpoints, int iteration) throws IOException {
+        if (checkpoints != null && iteration % checkpointInterval == 0) {
+            long start = metrics.start();
+            checkpoints.save(iteration, particles, ids, monitor);
+            metrics.end(RunMetrics.Phase.CHECKPOINT, start);
+        }
+    }
+
+    private void beginRun() {
+        if (cellDivisions == AUTO_CELL_DIVISIONS && !cellsTuned) {
+            tuneCellDivisions();
+        }
+        metrics.begin(describe());
+        if (cellDivisions == AUTO_CELL_DIVISIONS && cellsTuned) {
+            metrics.note("cell_divisions", cellTuning);
+        }
+        clusters.begin(describe(), N);
+        correlations.begin(describe(), N, L, cellIndex.getDivisions());
+    }
+
+    // Times the neighbor search of the current positions with every number of divisions, round robin so all of them
+    // run as warm as the others, and keeps the fastest. Only the neighbor buffers are written, the state is untouched
+    private void tuneCellDivisions() {
+        // with Verlet lists the cells only serve the searches of candidates
+        double radius = verletList != null ? rc + verletSkin : rc;
+        CellIndex[] candidates = new CellIndex[MAX_CELL_DIVISIONS];
+        long[] nanos = new long[MAX_CELL_DIVISIONS];
+        for (int d = 0; d < MAX_CELL_DIVISIONS; d++) {
+            candidates[d] = createCellIndex(radius, d + 1);
+            nanos[d] = Long.MAX_VALUE;
+        }
+        for (int round = 0; round < TUNING_ROUNDS; round++) {
+            for (int d = 0; d < MAX_CELL_DIVISIONS; d++) {
+                long start = System.nanoTime();
+                searchNeighbors(candidates[d]);
+                nanos[d] = Math.min(nanos[d], System.nanoTime() - start);
+            }
+        }
+        int best = 0;
+        StringBuilder timings = new StringBuilder();
+        for (int d = 0; d < MAX_CELL_DIVISIONS; d++) {
+            if (nanos[d] < nanos[best]) {
+                best = d;
+            }
+            timings.append(String.format(Locale.ROOT, ", %d -> %.2f ms", d + 1, nanos[d] / 1e6));
+        }
+        this.cellTuning = (best + 1) + " (" + timings.substring(2) + ")";
+        this.cellIndex = verletList != null ? createCellIndex(rc, best + 1) : candidates[best];
+        setVerletSkin(verletSkin);
+        this.cellsTuned = true;
+    }
+
+    // Neighbor search of the current positions with index, as done by a step
+    private void searchNeighbors(CellIndex index) {
+        range.forEach(N, (from, to) -> index.assignCells(particles, from, to));
+        index.sort(particles);
+        if (fusedAlignment && verletList == null) {
+            index.accumulateAlignment(particles, alignmentCos, alignmentSin, alignmentCount, range);
+        } else {
+            range.forEach(N, (from, to) -> index.findNeighbors(particles, neighbors, from, to));
+        }
+    }
+
+    private void endRun() {
+        startIteration = 0;
+        // before finish(), which writes the notes out
+        reportNeighborStatistics();
+        metrics.finish();
+        clusters.finish();
+        correlations.finish();
+    }
+
+    private void reportNeighborStatistics() {
+        if (verletList != null) {
+            metrics.note("verlet_lists", verletList.summary());
+            verletList.resetStatistics();
+        }
+    }
+
+    // Runs maxIterations steps with the current nu and returns the statistics of the polarization
+    // after the first transientSteps steps, nothing is written to disk
+    public BlockAverage runForPolarizationStatistics(int transientSteps) {
+        beginRun();
+        BlockAverage stats = new BlockAverage();
+        for(int i = startIteration + 1; i <= maxIterations; i++){
+            stepVicsek(i);
+            if(i > transientSteps){
+                stats.add(calculatePolarization());
+            }
+        }
+        endRun();
+        return stats;
+    }
+
+    // Runs maxIterations steps with the current nu and returns the polarization after each of them,
+    // nothing is written to disk
+    public double[] runForPolarizationSeries() {
+        beginRun();
+        double[] series = new double[maxIterations - startIteration];
+        for(int i = startIteration + 1; i <= maxIterations; i++){
+            stepVicsek(i);
+            series[i - startIteration - 1] = calculatePolarization();
+        }
+        endRun();
+        return series;
+    }
+
+    // Runs with the current nu until the polarization is stationary and its mean is known within targetError,
+    // or for maxIterations steps, nothing is written to disk
+    public SteadyStateMonitor runUntilSteadyState(double targetError) {
+        beginRun();
+        SteadyStateMonitor monitor = new SteadyStateMonitor(targetError);
+        for(int i = startIteration + 1; i <= maxIterations; i++){
+            stepVicsek(i);
+            if(monitor.add(calculatePolarization())){
+                break;
+            }
+        }
+        endRun();
+        return monitor;
+    }
+
     // todo no entiendo lo que tengo que plottear, esto está mal
     // note: L is constant, we increase density by increasing N -> check for d between 0 and 10
     public void runSimulationForDensity(String filePath, int N){
         setDensity((double) N /(L * L));
-        for(int i = 1; i <= maxIterations; i++){
-            findNeighbors();
-            updatePositions(i);
-            writeDataToFile(filePath, String.format("%.5f;%.5f\n", calculatePolarization(), density));
+        beginRun();
+        try (SeriesWriter writer = new SeriesWriter(filePath, 2, "%.5f;%.5f", describe()); CheckpointWriter checkpoints = openCheckpoints()) {
+            for(int i = startIteration + 1; i <= maxIterations; i++){
+                stepVicsek(i);
+                double polarization = calculatePolarization();
+                long start = metrics.start();
+                writer.append(polarization, density);
+                metrics.end(RunMetrics.Phase.OUTPUT, start);
+                checkpoint(checkpoints, i);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        endRun();
+    }
+
+    // Rebuilds a simulation from a checkpoint, the next run continues after the checkpointed step
+    // and gives the same trajectory as the uninterrupted run. A polarization run also continues its steady state
+    // detection, so it stops at the same step. Binary trajectories keep their frames up to the checkpointed step and
+    // go on after them; text trajectories and series are appended to, so what the interrupted run wrote after the
+    // checkpoint appears twice in them. Checkpoints keep going to the same file with the same interval
+    public static Simulation restore(String fileName) throws IOException {
+        CheckpointReader checkpoint = new CheckpointReader(fileName);
+        Simulation simulation = new Simulation(checkpoint.getN(), checkpoint.getTimeStep(), checkpoint.getMaxIterations(),
+                checkpoint.getL(), checkpoint.getRc(), checkpoint.getNu(), checkpoint.getSeed());
+        if (checkpoint.getPrecision() != Precision.DOUBLE) {
+            simulation.setPrecision(checkpoint.getPrecision());
+        }
+        simulation.particles.copyFrom(checkpoint.getParticles());
+        simulation.initialSnapshot.scatterFrom(checkpoint.getParticles(), checkpoint.getIds());
+        System.arraycopy(checkpoint.getIds(), 0, simulation.ids, 0, simulation.N);
+        for (int k = 0; k < simulation.N; k++) {
+            simulation.slotOf[simulation.ids[k]] = k;
         }
+        // the particles come from the checkpoint, only the noise is drawn with the generator
+        simulation.rng = checkpoint.getRng();
+        simulation.setReorderInterval(checkpoint.getReorderInterval());
+        simulation.setFrameInterval(checkpoint.getFrameInterval());
+        simulation.setVerletSkin(checkpoint.getVerletSkin());
+        simulation.setTargetError(checkpoint.getTargetError());
+        simulation.setFusedAlignment(checkpoint.isFusedAlignment());
+        // the divisions in use, so a tuned run goes on with the same cells
+        simulation.setCellDivisions(checkpoint.getCellDivisions());
+        simulation.setCheckpoint(fileName, checkpoint.getCheckpointInterval());
+        simulation.startIteration = checkpoint.getIteration();
+        simulation.monitor = checkpoint.getMonitor();
+        return simulation;
     }
 
     public void resetVariables(int N, double timeStep, int maxIterations, int L, double radius, double nu) {
@@ -396,34 +1135,14 @@ public final class Simulation {
 
         if(N == this.N){
             resetParticlesToInitialSnapshot();
+            this.cellIndex = createCellIndex(rc, requestedCellDivisions());
+            this.cellsTuned = false;
+            setVerletSkin(verletSkin);
         } else {
             regenerateParticles();
         }
     }
 
-    private final static class Cell {
-        final int x, y;
-
-        Cell(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (!(obj instanceof Cell cell))
-                return false;
-            return x == cell.x && y == cell.y;
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(x, y);
-        }
-    }
-
     public int getN() {
         return N;
     }
@@ -440,6 +1159,10 @@ public final class Simulation {
         return L;
     }
 
+    public double getTargetError() {
+        return targetError;
+    }
+
     public double getRc() {
         return rc;
     }
@@ -452,16 +1175,42 @@ public final class Simulation {
         return nu;
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isFusedAlignment() {
+        return fusedAlignment;
+    }
+
+    // Divisions of the cells in use, the tuned ones after an AUTO_CELL_DIVISIONS run
+    public int getCellDivisions() {
+        return cellIndex.getDivisions();
+    }
+
+    public double getVerletSkin() {
+        return verletSkin;
+    }
+
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    public int getThreads() {
+        return range.getThreads();
+    }
+
     public double getDensity() {
         return density;
     }
 
+    // In id order, whatever the order in memory
     public List<Particle> getParticles() {
-        return particles;
+        return particles.asList(slotOf);
     }
 
     public List<Particle> getInitialSnapshot() {
-        return initialSnapshot;
+        return initialSnapshot.asList();
     }
 }
 
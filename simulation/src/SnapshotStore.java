@@ -0,0 +1,93 @@
+/*
+* Copy of one step for output: x, y and theta only, in float for outputs that are float32 anyway (binary trajectories,
+* images, the live view) and in double otherwise, 12 or 24 bytes per particle instead of the 88 of a HeapParticleStore.
+* cos and sin are computed from theta when read. There is no back buffer and no velocity, so a snapshot can be filled
+* with copyFrom() / scatterFrom() and read, but not stepped.
+* */
+public final class SnapshotStore extends ParticleStore {
+    private final int size;
+    private final float[] xF;
+    private final float[] yF;
+    private final float[] thetaF;
+    private final double[] x;
+    private final double[] y;
+    private final double[] theta;
+
+    public SnapshotStore(int size, boolean single) {
+        this.size = size;
+        this.xF = single ? new float[size] : null;
+        this.yF = single ? new float[size] : null;
+        this.thetaF = single ? new float[size] : null;
+        this.x = single ? null : new double[size];
+        this.y = single ? null : new double[size];
+        this.theta = single ? null : new double[size];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getX(int i) {
+        return x == null ? xF[i] : x[i];
+    }
+
+    @Override
+    public double getY(int i) {
+        return y == null ? yF[i] : y[i];
+    }
+
+    @Override
+    public double getTheta(int i) {
+        return theta == null ? thetaF[i] : theta[i];
+    }
+
+    @Override
+    public double getCos(int i) {
+        return Math.cos(getTheta(i));
+    }
+
+    @Override
+    public double getSin(int i) {
+        return Math.sin(getTheta(i));
+    }
+
+    @Override
+    public double getVelocity(int i) {
+        throw new UnsupportedOperationException("Snapshots do not keep velocities");
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double velocity) {
+        if (this.x == null) {
+            xF[i] = (float) x;
+            yF[i] = (float) y;
+            thetaF[i] = (float) theta;
+        } else {
+            this.x[i] = x;
+            this.y[i] = y;
+            this.theta[i] = theta;
+        }
+    }
+
+    @Override
+    public void set(int i, double x, double y, double theta, double cos, double sin, double velocity) {
+        set(i, x, y, theta, velocity);
+    }
+
+    @Override
+    public void setNext(int i, double x, double y, double theta, double cos, double sin) {
+        throw new UnsupportedOperationException("Snapshots have no back buffer");
+    }
+
+    @Override
+    protected void setVelocity(int i, double velocity) {
+        throw new UnsupportedOperationException("Snapshots do not keep velocities");
+    }
+
+    @Override
+    public void swap() {
+        throw new UnsupportedOperationException("Snapshots have no back buffer");
+    }
+}
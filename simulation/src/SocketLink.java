@@ -0,0 +1,159 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+/*
+* MessageLink over a TCP or Unix domain socket, addresses are written "host:port" or "unix:/path/to/socket".
+* Every message is sent as its length (4 bytes) followed by its bytes. Sends are written by a background thread,
+* so workers that all send to their neighbors before receiving never block each other on full socket buffers.
+* */
+public final class SocketLink extends AsyncOutput<SocketLink.Frame> implements MessageLink {
+    private static final int SLOTS = 4;
+    private static final String UNIX_PREFIX = "unix:";
+
+    private final SocketChannel channel;
+    private final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer incoming = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    static final class Frame {
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private SocketLink(SocketChannel channel) throws IOException {
+        super("socket-link", frames());
+        this.channel = channel;
+        if (channel.getLocalAddress() instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        startWriter();
+    }
+
+    private static Frame[] frames() {
+        Frame[] frames = new Frame[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            frames[i] = new Frame();
+        }
+        return frames;
+    }
+
+    public static SocketAddress address(String address) {
+        if (address.startsWith(UNIX_PREFIX)) {
+            return UnixDomainSocketAddress.of(address.substring(UNIX_PREFIX.length()));
+        }
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port or unix:path, got " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    public static boolean isUnix(String address) {
+        return address.startsWith(UNIX_PREFIX);
+    }
+
+    public static SocketLink connect(String address) throws IOException {
+        return new SocketLink(SocketChannel.open(address(address)));
+    }
+
+    // Port 0 picks a free port, a leftover Unix socket file is replaced
+    public static ServerSocketChannel listen(String address) throws IOException {
+        SocketAddress socketAddress = address(address);
+        if (socketAddress instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+            return ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(socketAddress);
+        }
+        return ServerSocketChannel.open().bind(socketAddress);
+    }
+
+    public static SocketLink accept(ServerSocketChannel server) throws IOException {
+        return new SocketLink(server.accept());
+    }
+
+    // Closes a server socket from listen(), deleting its file for Unix sockets
+    public static void close(ServerSocketChannel server) throws IOException {
+        SocketAddress socketAddress = server.getLocalAddress();
+        server.close();
+        if (socketAddress instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+        }
+    }
+
+    // Port a TCP server socket from listen() was bound to
+    public static int port(ServerSocketChannel server) throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    // Address of the other end as seen from here, without the port
+    public String remoteHost() throws IOException {
+        if (channel.getRemoteAddress() instanceof InetSocketAddress inet) {
+            return inet.getAddress().getHostAddress();
+        }
+        return null;
+    }
+
+    @Override
+    public void send(ByteBuffer message) throws IOException {
+        Frame frame = acquire();
+        int size = message.remaining();
+        if (frame.buffer.capacity() < Integer.BYTES + size) {
+            frame.buffer = ByteBuffer.allocateDirect(Math.max(Integer.BYTES + size, frame.buffer.capacity() * 2))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        frame.buffer.clear();
+        frame.buffer.putInt(size);
+        frame.buffer.put(message.duplicate());
+        frame.buffer.flip();
+        publish(frame);
+    }
+
+    @Override
+    protected void write(Frame frame) throws IOException {
+        while (frame.buffer.hasRemaining()) {
+            channel.write(frame.buffer);
+        }
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        length.clear();
+        readFully(length);
+        int size = length.flip().getInt();
+        if (incoming.capacity() < size) {
+            incoming = ByteBuffer.allocateDirect(Math.max(size, incoming.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        incoming.clear().limit(size);
+        readFully(incoming);
+        return incoming.flip();
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Link closed by the other end");
+            }
+        }
+    }
+
+    @Override
+    protected void closeOutput() throws IOException {
+        // every frame is written whole, nothing to finish
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
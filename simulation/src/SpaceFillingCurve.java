@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+/*
+* Hilbert curve over the cells of an M x M grid, so particles sorted by the rank of their cell end up close in memory
+* when they are close in space. When M is a power of two consecutive cells along the curve are always adjacent.
+* Otherwise the curve of the next power of two is followed and the cells outside the grid are skipped, so it jumps
+* where it leaves the grid, though cells of the same quadrant still stay together.
+* */
+public final class SpaceFillingCurve {
+    private SpaceFillingCurve() {
+    }
+
+    // Distance along the Hilbert curve of the n x n grid (n a power of two) to cell (x, y)
+    static long hilbertIndex(int n, int x, int y) {
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // rotate the quadrant so the curve inside it starts where the previous one ended
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int aux = x;
+                x = y;
+                y = aux;
+            }
+        }
+        return d;
+    }
+
+    // Position of every cell cx * M + cy along the curve, 0 .. M * M - 1. When M is not a power of two
+    // the curve of the next power of two is used and the cells outside the grid are skipped
+    public static int[] hilbertRanks(int M) {
+        int n = Integer.highestOneBit(Math.max(M, 1));
+        if (n < M) {
+            n *= 2;
+        }
+        long[] keys = new long[M * M];
+        for (int cx = 0; cx < M; cx++) {
+            for (int cy = 0; cy < M; cy++) {
+                int cell = cx * M + cy;
+                keys[cell] = hilbertIndex(n, cx, cy) << 32 | cell;
+            }
+        }
+        Arrays.sort(keys);
+        int[] ranks = new int[M * M];
+        for (int rank = 0; rank < keys.length; rank++) {
+            ranks[(int) keys[rank]] = rank;
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+* Counter-based generator built from the SplitMix64 finalizer: the seed, the step and the particle are mixed in turn.
+* Cheap, and the default one.
+* */
+public final class SplitMixRng implements CounterRng {
+    static final int ID = 0;
+    static final String NAME = "splitmix";
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public double uniform(long seed, int step, int particle) {
+        long z = mix(seed + (step + 1L) * GOLDEN_GAMMA);
+        z = mix(z + (particle + 1L) * GOLDEN_GAMMA);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public double uniform(long seed, int step, int particle, int other) {
+        long z = mix(seed + (step + 1L) * GOLDEN_GAMMA);
+        z = mix(z + (particle + 1L) * GOLDEN_GAMMA);
+        z = mix(z + (other + 1L) * GOLDEN_GAMMA);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    // The step part of the mix is the same for every particle, so it is done once
+    @Override
+    public void fill(long seed, int step, int[] ids, int from, int to, double[] out) {
+        long stepKey = mix(seed + (step + 1L) * GOLDEN_GAMMA);
+        for (int i = from; i < to; i++) {
+            out[i] = (mix(stepKey + (ids[i] + 1L) * GOLDEN_GAMMA) >>> 11) * 0x1.0p-53;
+        }
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+}
@@ -0,0 +1,117 @@
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/*
+* Decides online when a series (the polarization) has reached steady state and when its mean is known well enough.
+* Stationarity: the series is cut in consecutive windows, two consecutive windows whose means agree within
+* Z standard errors mark the start of the steady state at the beginning of the second one. Otherwise the older window is
+* dropped as transient and the window length doubles, so slow relaxations are caught with O(transient) extra steps.
+* Convergence: once stationary, the run can stop when the error of the mean (blocking analysis) is at most targetError
+* and the samples span at least MIN_TAUS autocorrelation times.
+* */
+public final class SteadyStateMonitor {
+    private static final double Z = 2.0;
+    private static final double MIN_TAUS = 50;
+    // Two windows of this length give MIN_BLOCKS blocks at level 1 of each
+    private static final int MIN_WINDOW = 2 * BlockAverage.MIN_BLOCKS;
+    // Size of the state saved by writeTo()
+    static final int BYTES = Integer.BYTES + 2 + 2 * Long.BYTES + 2 * BlockAverage.BYTES;
+
+    private final double targetError;
+    private int window = MIN_WINDOW;
+    private BlockAverage previous;
+    private BlockAverage current = new BlockAverage();
+    private boolean stationary = false;
+    private long transientSteps = 0;
+    private long steps = 0;
+
+    // targetError <= 0 only detects the steady state, add() then never reports convergence
+    public SteadyStateMonitor(double targetError) {
+        this.targetError = targetError;
+    }
+
+    // Returns true once the mean is known within targetError
+    public boolean add(double value) {
+        steps++;
+        current.add(value);
+        if (stationary) {
+            return isConverged();
+        }
+        if (current.getCount() < window) {
+            return false;
+        }
+        if (previous != null && Math.abs(previous.getMean() - current.getMean())
+                <= Z * Math.hypot(previous.getStandardError(), current.getStandardError())) {
+            // the window just completed is already steady state, its samples are kept
+            stationary = true;
+            transientSteps = steps - current.getCount();
+            previous = null;
+            return isConverged();
+        }
+        if (previous != null) {
+            window *= 2;
+        }
+        previous = current;
+        current = new BlockAverage();
+        return false;
+    }
+
+    // Saves the whole state, so a run restored from a checkpoint takes the same decisions as the uninterrupted one
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(window);
+        buffer.put((byte) (stationary ? 1 : 0));
+        buffer.put((byte) (previous != null ? 1 : 0));
+        buffer.putLong(transientSteps);
+        buffer.putLong(steps);
+        current.writeTo(buffer);
+        (previous != null ? previous : new BlockAverage()).writeTo(buffer);
+    }
+
+    // Restores the state saved by writeTo()
+    void readFrom(ByteBuffer buffer) {
+        window = buffer.getInt();
+        stationary = buffer.get() != 0;
+        boolean hasPrevious = buffer.get() != 0;
+        transientSteps = buffer.getLong();
+        steps = buffer.getLong();
+        current = new BlockAverage();
+        current.readFrom(buffer);
+        previous = new BlockAverage();
+        previous.readFrom(buffer);
+        if (!hasPrevious) {
+            previous = null;
+        }
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    public boolean isConverged() {
+        return stationary && targetError > 0 && current.getStandardError() <= targetError
+                && current.getCount() >= MIN_TAUS * current.getAutocorrelationTime();
+    }
+
+    // Samples discarded as transient, all of them while the steady state has not been reached
+    public long getTransientSteps() {
+        return stationary ? transientSteps : steps;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    // Statistics of the steady state, or of the last window while it has not been reached
+    public BlockAverage getStatistics() {
+        return current;
+    }
+
+    // The transient is only known once stationary, before that it reads "not over" (getTransientSteps() counts every
+    // step as transient)
+    public String summary() {
+        return String.format(Locale.ROOT, "%s after %d steps: transient %s, mean %.6f +- %.2e, tau %.1f steps",
+                isConverged() ? "Converged" : stationary ? "Stationary, not converged" : "Not stationary",
+                steps, stationary ? Long.toString(transientSteps) : "not over", current.getMean(),
+                current.getStandardError(), current.getAutocorrelationTime());
+    }
+}
@@ -0,0 +1,72 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+* Flight Recorder event of one simulation step with the time of each phase and the neighbor statistics,
+* recorded by RunMetrics. Costs nothing while no recording has it enabled, see "jfr print --events vicsek.Step".
+* */
+@Name("vicsek.Step")
+@Label("Simulation Step")
+@Category("Vicsek")
+@Description("One step of a Simulation run, from the start of the step to the start of the next one")
+@StackTrace(false)
+final class StepEvent extends Event {
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Particles")
+    int particles;
+
+    @Label("Reorder")
+    @Timespan(Timespan.NANOSECONDS)
+    long reorder;
+
+    @Label("Binning")
+    @Timespan(Timespan.NANOSECONDS)
+    long binning;
+
+    @Label("Neighbor Search")
+    @Timespan(Timespan.NANOSECONDS)
+    long neighbors;
+
+    @Label("Update")
+    @Timespan(Timespan.NANOSECONDS)
+    long update;
+
+    @Label("Polarization")
+    @Timespan(Timespan.NANOSECONDS)
+    long polarization;
+
+    @Label("Clusters")
+    @Timespan(Timespan.NANOSECONDS)
+    long clusters;
+
+    @Label("Correlations")
+    @Timespan(Timespan.NANOSECONDS)
+    long correlations;
+
+    @Label("Output")
+    @Timespan(Timespan.NANOSECONDS)
+    long output;
+
+    @Label("Checkpoint")
+    @Timespan(Timespan.NANOSECONDS)
+    long checkpoint;
+
+    @Label("Mean Neighbors")
+    double meanNeighbors;
+
+    @Label("Max Neighbors")
+    int maxNeighbors;
+
+    @Label("Pair Tests")
+    long pairTests;
+
+    @Label("Accepted Pairs")
+    long acceptedPairs;
+}
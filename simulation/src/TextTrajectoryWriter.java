@@ -0,0 +1,50 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+* Text trajectory read by animation.py:
+* L:<L>
+* N:<N>
+* seed:<seed>
+* rng:<generator>
+* t:<step>
+* id;x;y;theta
+* ...
+* density:<density>
+* Numbers are always written with a decimal point, whatever the default locale is.
+* */
+public final class TextTrajectoryWriter implements TrajectoryWriter {
+    private final BufferedWriter writer;
+    private final double density;
+
+    public TextTrajectoryWriter(String fileName, int N, int L, double density, long seed, String rng) throws IOException {
+        this.writer = new BufferedWriter(new FileWriter(fileName, true));
+        this.density = density;
+        writer.write(String.format("L:%d\n", L));
+        writer.write(String.format("N:%d\n", N));
+        writer.write(String.format("seed:%d\n", seed));
+        writer.write(String.format("rng:%s\n", rng));
+    }
+
+    @Override
+    public void writeFrame(int step, ParticleStore particles) throws IOException {
+        writer.write("t:" + step + "\n");
+        for (int i = 0; i < particles.size(); i++) {
+            writer.write(String.format(Locale.ROOT, "%d;%.6f;%.6f;%.6f",
+                    i,
+                    particles.getX(i),
+                    particles.getY(i),
+                    particles.getTheta(i)));
+            writer.newLine();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (writer) {
+            writer.write(String.format(Locale.ROOT, "density:%.3f\n", density));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+import java.io.IOException;
+
+/*
+* Destination of the particle frames of a run, kept open for the whole run.
+* */
+public interface TrajectoryWriter extends AutoCloseable {
+    void writeFrame(int step, ParticleStore particles) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+* Lock-free union-find over 0 .. size - 1: any number of threads can call union() and find() at the same time.
+* A root is only ever linked under a smaller root with a compare-and-set, and find() halves the paths it walks,
+* so parents always decrease and every set ends up rooted at its smallest element, whatever order the unions
+* ran in (Anderson and Woll, "Wait-free parallel algorithms for the union-find problem", STOC 1991).
+* */
+public final class UnionFind {
+    private final AtomicIntegerArray parent;
+
+    public UnionFind(int size) {
+        this.parent = new AtomicIntegerArray(size);
+        reset(0, size);
+    }
+
+    public int size() {
+        return parent.length();
+    }
+
+    // Makes [from, to) singletons again, independent ranges can run concurrently (but not with union())
+    public void reset(int from, int to) {
+        for (int i = from; i < to; i++) {
+            parent.set(i, i);
+        }
+    }
+
+    public int find(int i) {
+        while (true) {
+            int p = parent.get(i);
+            int grandparent = parent.get(p);
+            if (p == grandparent) {
+                return p;
+            }
+            // path halving, losing the race only means another thread shortened it first
+            parent.compareAndSet(i, p, grandparent);
+            i = grandparent;
+        }
+    }
+
+    public void union(int a, int b) {
+        while (true) {
+            a = find(a);
+            b = find(b);
+            if (a == b) {
+                return;
+            }
+            if (a < b) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            // a is linked only if it is still a root, otherwise someone linked it meanwhile and we look again
+            if (parent.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+}
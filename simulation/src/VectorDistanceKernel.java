@@ -0,0 +1,219 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+* DistanceKernel on the Vector API: one particle against a lane-width block of candidates at a time.
+* The periodic wrap and the squared distance compare are done lane-wise and give a mask of the accepted candidates;
+* the remainder of the range that does not fill a vector goes through the scalar code.
+* The lane-wise test is written out in every loop rather than in a helper: with short ranges (small cells) the loop
+* runs rarely, the JIT does not inline a helper called from a cold site, and the vectors passed to it are then
+* allocated on the heap.
+* Float positions are tested with twice the lanes. With double sums (Precision.MIXED) the mask of a float test is split
+* in the masks of the two double vectors of sums it covers.
+* Only instantiated through DistanceKernel.select(), requires --add-modules jdk.incubator.vector.
+* */
+public final class VectorDistanceKernel implements DistanceKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+
+    @Override
+    public int collect(double x, double y, double[] xs, double[] ys, int from, int to, double L, double rc2, int[] out) {
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector vy = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector side = DoubleVector.broadcast(SPECIES, L);
+        int found = 0;
+        int b = from;
+        for (; b <= to - LANES; b += LANES) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, b).sub(vx).abs();
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, b).sub(vy).abs();
+            dx = dx.min(side.sub(dx));
+            dy = dy.min(side.sub(dy));
+            long bits = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, rc2).toLong();
+            while (bits != 0) {
+                out[found++] = b + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        for (; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                out[found++] = b;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void accumulate(int a, double[] xs, double[] ys, double[] cos, double[] sin,
+                           double[] cosSum, double[] sinSum, int[] counts, int from, int to, double L, double rc2) {
+        double x = xs[a];
+        double y = ys[a];
+        DoubleVector vx = DoubleVector.broadcast(SPECIES, x);
+        DoubleVector vy = DoubleVector.broadcast(SPECIES, y);
+        DoubleVector side = DoubleVector.broadcast(SPECIES, L);
+        DoubleVector cosA = DoubleVector.broadcast(SPECIES, cos[a]);
+        DoubleVector sinA = DoubleVector.broadcast(SPECIES, sin[a]);
+        int b = from;
+        for (; b <= to - LANES; b += LANES) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, b).sub(vx).abs();
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, b).sub(vy).abs();
+            dx = dx.min(side.sub(dx));
+            dy = dy.min(side.sub(dy));
+            VectorMask<Double> mask = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, rc2);
+            if (!mask.anyTrue()) {
+                continue;
+            }
+            // each candidate receives a single addition, same as the scalar code
+            DoubleVector.fromArray(SPECIES, cosSum, b).add(cosA, mask).intoArray(cosSum, b);
+            DoubleVector.fromArray(SPECIES, sinSum, b).add(sinA, mask).intoArray(sinSum, b);
+            // particle a receives its contributions one by one in slot order, so its sums keep the scalar rounding
+            long bits = mask.toLong();
+            while (bits != 0) {
+                int neighbor = b + Long.numberOfTrailingZeros(bits);
+                cosSum[a] += cos[neighbor];
+                sinSum[a] += sin[neighbor];
+                counts[a]++;
+                counts[neighbor]++;
+                bits &= bits - 1;
+            }
+        }
+        for (; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public int collect(float x, float y, float[] xs, float[] ys, int from, int to, float L, float rc2, int[] out) {
+        FloatVector vx = FloatVector.broadcast(FLOAT_SPECIES, x);
+        FloatVector vy = FloatVector.broadcast(FLOAT_SPECIES, y);
+        FloatVector side = FloatVector.broadcast(FLOAT_SPECIES, L);
+        int found = 0;
+        int b = from;
+        for (; b <= to - FLOAT_LANES; b += FLOAT_LANES) {
+            FloatVector dx = FloatVector.fromArray(FLOAT_SPECIES, xs, b).sub(vx).abs();
+            FloatVector dy = FloatVector.fromArray(FLOAT_SPECIES, ys, b).sub(vy).abs();
+            dx = dx.min(side.sub(dx));
+            dy = dy.min(side.sub(dy));
+            long bits = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, rc2).toLong();
+            while (bits != 0) {
+                out[found++] = b + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        for (; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                out[found++] = b;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public void accumulate(int a, float[] xs, float[] ys, double[] cos, double[] sin,
+                           double[] cosSum, double[] sinSum, int[] counts, int from, int to, float L, float rc2) {
+        float x = xs[a];
+        float y = ys[a];
+        FloatVector vx = FloatVector.broadcast(FLOAT_SPECIES, x);
+        FloatVector vy = FloatVector.broadcast(FLOAT_SPECIES, y);
+        FloatVector side = FloatVector.broadcast(FLOAT_SPECIES, L);
+        DoubleVector cosA = DoubleVector.broadcast(SPECIES, cos[a]);
+        DoubleVector sinA = DoubleVector.broadcast(SPECIES, sin[a]);
+        int b = from;
+        for (; b <= to - FLOAT_LANES; b += FLOAT_LANES) {
+            FloatVector dx = FloatVector.fromArray(FLOAT_SPECIES, xs, b).sub(vx).abs();
+            FloatVector dy = FloatVector.fromArray(FLOAT_SPECIES, ys, b).sub(vy).abs();
+            dx = dx.min(side.sub(dx));
+            dy = dy.min(side.sub(dy));
+            long bits = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, rc2).toLong();
+            if (bits == 0) {
+                continue;
+            }
+            // the float lanes b .. b + FLOAT_LANES - 1 are the sums of two double vectors
+            for (int at = b; at < b + FLOAT_LANES; at += LANES) {
+                VectorMask<Double> mask = VectorMask.fromLong(SPECIES, bits >>> (at - b));
+                if (mask.anyTrue()) {
+                    DoubleVector.fromArray(SPECIES, cosSum, at).add(cosA, mask).intoArray(cosSum, at);
+                    DoubleVector.fromArray(SPECIES, sinSum, at).add(sinA, mask).intoArray(sinSum, at);
+                }
+            }
+            while (bits != 0) {
+                int neighbor = b + Long.numberOfTrailingZeros(bits);
+                cosSum[a] += cos[neighbor];
+                sinSum[a] += sin[neighbor];
+                counts[a]++;
+                counts[neighbor]++;
+                bits &= bits - 1;
+            }
+        }
+        for (; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public void accumulate(int a, float[] xs, float[] ys, float[] cos, float[] sin,
+                           float[] cosSum, float[] sinSum, int[] counts, int from, int to, float L, float rc2) {
+        float x = xs[a];
+        float y = ys[a];
+        FloatVector vx = FloatVector.broadcast(FLOAT_SPECIES, x);
+        FloatVector vy = FloatVector.broadcast(FLOAT_SPECIES, y);
+        FloatVector side = FloatVector.broadcast(FLOAT_SPECIES, L);
+        FloatVector cosA = FloatVector.broadcast(FLOAT_SPECIES, cos[a]);
+        FloatVector sinA = FloatVector.broadcast(FLOAT_SPECIES, sin[a]);
+        int b = from;
+        for (; b <= to - FLOAT_LANES; b += FLOAT_LANES) {
+            FloatVector dx = FloatVector.fromArray(FLOAT_SPECIES, xs, b).sub(vx).abs();
+            FloatVector dy = FloatVector.fromArray(FLOAT_SPECIES, ys, b).sub(vy).abs();
+            dx = dx.min(side.sub(dx));
+            dy = dy.min(side.sub(dy));
+            VectorMask<Float> mask = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, rc2);
+            if (!mask.anyTrue()) {
+                continue;
+            }
+            FloatVector.fromArray(FLOAT_SPECIES, cosSum, b).add(cosA, mask).intoArray(cosSum, b);
+            FloatVector.fromArray(FLOAT_SPECIES, sinSum, b).add(sinA, mask).intoArray(sinSum, b);
+            long bits = mask.toLong();
+            while (bits != 0) {
+                int neighbor = b + Long.numberOfTrailingZeros(bits);
+                cosSum[a] += cos[neighbor];
+                sinSum[a] += sin[neighbor];
+                counts[a]++;
+                counts[neighbor]++;
+                bits &= bits - 1;
+            }
+        }
+        for (; b < to; b++) {
+            if (DistanceKernel.distance2(xs[b] - x, ys[b] - y, L) <= rc2) {
+                cosSum[a] += cos[b];
+                sinSum[a] += sin[b];
+                counts[a]++;
+                cosSum[b] += cos[a];
+                sinSum[b] += sin[a];
+                counts[b]++;
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return "vector (" + LANES + " lanes, " + FLOAT_LANES + " in float)";
+    }
+}
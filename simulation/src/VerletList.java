@@ -0,0 +1,193 @@
+import java.util.Locale;
+
+/*
+* Verlet neighbor lists: candidates are searched with radius rc + skin and reused across steps.
+* Every step the candidates are filtered with the true rc, and the candidates are only searched again once some particle
+* has moved more than skin / 2 since the last search (until then no pair can have come from outside rc + skin to inside rc).
+* Candidate lists are sorted by index like the cell index ones, so the neighbor lists are exactly the same
+* as searching from scratch every step (in single precision both test distances in float).
+* */
+public final class VerletList {
+    private final int N;
+    private final int L;
+    private final double rc;
+    private final double skin;
+    private final Precision precision;
+    private final CellIndex cellIndex;
+    private final NeighborList candidates;
+    private final double[] referenceX;
+    private final double[] referenceY;
+    private final double[] partialMaxDisplacement;
+    private final long[] partialCandidates;
+    private final long[] partialAccepted;
+    private boolean valid = false;
+
+    // Statistics since the last resetStatistics()
+    private long steps = 0;
+    private long rebuilds = 0;
+    private long candidatePairs = 0;
+    private long acceptedPairs = 0;
+
+    public VerletList(int N, int L, double rc, double skin) {
+        this(N, L, rc, skin, 1);
+    }
+
+    public VerletList(int N, int L, double rc, double skin, int divisions) {
+        this(N, L, rc, skin, divisions, Precision.DOUBLE);
+    }
+
+    // Candidates are searched with cells of (rc + skin) / divisions, see CellIndex
+    public VerletList(int N, int L, double rc, double skin, int divisions, Precision precision) {
+        this.N = N;
+        this.L = L;
+        this.rc = rc;
+        this.skin = skin;
+        this.precision = precision;
+        this.cellIndex = new CellIndex(N, L, CellIndex.cellsPerSide(L, rc + skin, divisions), rc + skin, divisions,
+                precision);
+        this.candidates = new NeighborList(N);
+        this.referenceX = new double[N];
+        this.referenceY = new double[N];
+        int blocks = ParallelRange.blocks(N);
+        this.partialMaxDisplacement = new double[blocks];
+        this.partialCandidates = new long[blocks];
+        this.partialAccepted = new long[blocks];
+    }
+
+    public double getSkin() {
+        return skin;
+    }
+
+    // Forces a new search on the next step, needed when positions jump (e.g. a reset)
+    public void invalidate() {
+        valid = false;
+    }
+
+    public void findNeighbors(ParticleStore particles, NeighborList neighbors, ParallelRange range) {
+        if (!valid || maxDisplacement(particles, range) > skin / 2) {
+            rebuild(particles, range);
+        }
+        range.forEach(N, (from, to) -> filter(particles, neighbors, from, to));
+        steps++;
+        for (int b = 0; b < partialCandidates.length; b++) {
+            candidatePairs += partialCandidates[b];
+            acceptedPairs += partialAccepted[b];
+        }
+    }
+
+    private void rebuild(ParticleStore particles, ParallelRange range) {
+        range.forEach(N, (from, to) -> cellIndex.assignCells(particles, from, to));
+        cellIndex.sort(particles);
+        range.forEach(N, (from, to) -> {
+            cellIndex.findNeighbors(particles, candidates, from, to);
+            for (int i = from; i < to; i++) {
+                referenceX[i] = particles.getX(i);
+                referenceY[i] = particles.getY(i);
+            }
+        });
+        valid = true;
+        rebuilds++;
+    }
+
+    private double maxDisplacement(ParticleStore particles, ParallelRange range) {
+        range.forEach(N, (from, to) -> {
+            double max2 = 0.0;
+            for (int i = from; i < to; i++) {
+                double dx = particles.getX(i) - referenceX[i];
+                double dy = particles.getY(i) - referenceY[i];
+                max2 = Math.max(max2, DistanceKernel.distance2(dx, dy, L));
+            }
+            partialMaxDisplacement[from >> ParallelRange.BLOCK_SHIFT] = max2;
+        });
+        double max2 = 0.0;
+        for (double blockMax : partialMaxDisplacement) {
+            max2 = Math.max(max2, blockMax);
+        }
+        return Math.sqrt(max2);
+    }
+
+    private void filter(ParticleStore particles, NeighborList neighbors, int from, int to) {
+        if (precision.isSingle()) {
+            filterFloat(particles, neighbors, from, to);
+            return;
+        }
+        double rc2 = rc * rc;
+        long tested = 0;
+        long accepted = 0;
+        for (int i = from; i < to; i++) {
+            neighbors.start(i);
+            double x = particles.getX(i);
+            double y = particles.getY(i);
+            int count = candidates.count(i);
+            for (int k = 0; k < count; k++) {
+                int j = candidates.get(i, k);
+
+                // same distance test as the cell index kernels, so both accept exactly the same pairs
+                if (DistanceKernel.distance2(particles.getX(j) - x, particles.getY(j) - y, L) <= rc2) {
+                    neighbors.add(i, j);
+                    accepted++;
+                }
+            }
+            tested += count;
+        }
+        partialCandidates[from >> ParallelRange.BLOCK_SHIFT] = tested;
+        partialAccepted[from >> ParallelRange.BLOCK_SHIFT] = accepted;
+    }
+
+    // Same test in float, like the single precision cell index
+    private void filterFloat(ParticleStore particles, NeighborList neighbors, int from, int to) {
+        float rc2 = (float) (rc * rc);
+        long tested = 0;
+        long accepted = 0;
+        for (int i = from; i < to; i++) {
+            neighbors.start(i);
+            float x = (float) particles.getX(i);
+            float y = (float) particles.getY(i);
+            int count = candidates.count(i);
+            for (int k = 0; k < count; k++) {
+                int j = candidates.get(i, k);
+                if (DistanceKernel.distance2((float) particles.getX(j) - x, (float) particles.getY(j) - y, L) <= rc2) {
+                    neighbors.add(i, j);
+                    accepted++;
+                }
+            }
+            tested += count;
+        }
+        partialCandidates[from >> ParallelRange.BLOCK_SHIFT] = tested;
+        partialAccepted[from >> ParallelRange.BLOCK_SHIFT] = accepted;
+    }
+
+    public void resetStatistics() {
+        steps = 0;
+        rebuilds = 0;
+        candidatePairs = 0;
+        acceptedPairs = 0;
+    }
+
+    // Candidates filtered in the last step
+    public long lastCandidatePairs() {
+        long tested = 0;
+        for (long blockTested : partialCandidates) {
+            tested += blockTested;
+        }
+        return tested;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    // Fraction of the candidates that were within rc
+    public double getHitRatio() {
+        return candidatePairs == 0 ? 0.0 : (double) acceptedPairs / candidatePairs;
+    }
+
+    public String summary() {
+        return String.format(Locale.ROOT, "skin %.3f, %d steps, %d rebuilds (every %.1f steps), hit ratio %.3f, miss ratio %.3f",
+                skin, steps, rebuilds, rebuilds == 0 ? 0.0 : (double) steps / rebuilds, getHitRatio(), 1 - getHitRatio());
+    }
+}